@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.ipv4.IPv4Address;
+import io.github.secwrk.addr.asn.ASNEntry;
+import io.github.secwrk.addr.asn.ASNRangeIndex;
+import io.github.secwrk.addr.asn.ASNTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ASN lookup of a single IPv4 address, linear scan (as getAsn used to do) against {@link ASNRangeIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ASNLookupBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"10000", "500000"})
+    public int ranges;
+
+    private List<ASNEntry> entries;
+    private ASNRangeIndex index;
+    private int[] addresses;
+    private IPAddress[] ipAddresses;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ASNTable.Builder builder = ASNTable.builder();
+        for (String line : Fixtures.ip2asnLines(ranges, 42)) {
+            builder.addTsvLine(line);
+        }
+        ASNTable table = builder.build();
+
+        entries = new ArrayList<>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            entries.add(table.entry(i));
+        }
+        index = ASNRangeIndex.from(table);
+
+        int limit = table.ipv4End(table.ipv4Count() - 1) - table.ipv4Start(0);
+        addresses = Fixtures.ipv4Addresses(PROBES, limit, 7);
+        ipAddresses = new IPAddress[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            ipAddresses[i] = new IPv4Address(addresses[i]);
+        }
+    }
+
+    @Benchmark
+    public long linearScan() {
+        IPAddress address = ipAddresses[next++ & (PROBES - 1)];
+        for (ASNEntry entry : entries) {
+            if (entry.isInsideRange(address)) {
+                return entry.asn();
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public long rangeIndex() {
+        return index.asn(ipAddresses[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public long rangeIndexPrimitive() {
+        int address = addresses[next++ & (PROBES - 1)];
+        return index.asn(address, address);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import io.github.secwrk.addr.asn.ASNEntry;
+import io.github.secwrk.addr.asn.ASNTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of ip2asn lines, per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(ASNParseBenchmark.LINES)
+public class ASNParseBenchmark {
+
+    static final int LINES = 100_000;
+
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        lines = Fixtures.ip2asnLines(LINES, 42);
+    }
+
+    @Benchmark
+    public void asnEntryCreate(Blackhole blackhole) throws UnknownHostException {
+        for (String line : lines) {
+            String[] items = line.split("\t");
+            blackhole.consume(ASNEntry.create(items[0], items[1], Long.parseLong(items[2]), items[3], items[4]));
+        }
+    }
+
+    @Benchmark
+    public ASNTable asnTable() {
+        ASNTable.Builder builder = ASNTable.builder();
+        for (String line : lines) {
+            builder.addTsvLine(line);
+        }
+        return builder.build();
+    }
+}
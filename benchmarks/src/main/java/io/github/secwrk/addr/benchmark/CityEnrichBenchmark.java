@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import io.github.secwrk.addr.city.CountryTable;
+import io.github.secwrk.addr.city.GeoNameCountryEntry;
+import io.github.secwrk.addr.city.Iso3166Entry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Country name and Continent name enrichment of a City row, linear scan (as getIso/getGeoName
+ * used to do) against {@link CountryTable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CityEnrichBenchmark {
+
+    private static final int ROWS = 4096;
+    private static final Map<String, String> CONTINENT_MAPPING = Map.of("AS", "Asia", "AF", "Africa", "EU", "Europe",
+            "NA", "North America", "SA", "South America", "OC", "Oceania", "AN", "Antarctica");
+
+    private List<Iso3166Entry> isoList;
+    private List<GeoNameCountryEntry> geoNameList;
+    private CountryTable countryTable;
+    private String[] countryCodes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        isoList = Fixtures.isoEntries();
+        geoNameList = Fixtures.geoNameEntries();
+        countryTable = CountryTable.from(isoList, geoNameList, CONTINENT_MAPPING);
+
+        String[][] rows = Fixtures.cityRows(ROWS, 42);
+        countryCodes = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            countryCodes[i] = rows[i][3];
+        }
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        String countryCode = countryCodes[next++ & (ROWS - 1)];
+        for (Iso3166Entry iso3166Entry : isoList) {
+            if (iso3166Entry.alpha2().equalsIgnoreCase(countryCode)) {
+                blackhole.consume(iso3166Entry.name());
+                blackhole.consume(iso3166Entry.region());
+                return;
+            }
+        }
+        for (GeoNameCountryEntry geoNameEntry : geoNameList) {
+            if (geoNameEntry.countryCode().equalsIgnoreCase(countryCode)) {
+                blackhole.consume(geoNameEntry.countryName());
+                blackhole.consume(CONTINENT_MAPPING.get(geoNameEntry.continentCode().toUpperCase()));
+                return;
+            }
+        }
+    }
+
+    @Benchmark
+    public void countryTable(Blackhole blackhole) {
+        String countryCode = countryCodes[next++ & (ROWS - 1)];
+        blackhole.consume(countryTable.countryName(countryCode));
+        blackhole.consume(countryTable.continentName(countryCode));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import io.github.secwrk.addr.city.CityDatabase;
+import io.github.secwrk.addr.city.CityDatabaseWriter;
+import io.github.secwrk.addr.city.CityEntry;
+import io.github.secwrk.addr.lookup.IPv4DirectTable;
+import io.github.secwrk.addr.lookup.LookupCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * City lookup of a single IPv4 address against the memory-mapped {@link CityDatabase},
+ * by binary search, through an {@link IPv4DirectTable} and through a {@link LookupCache} which holds
+ * every probed address.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CityLookupBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"100000", "3000000"})
+    public int ranges;
+
+    private Path file;
+    private CityDatabase cityDatabase;
+    private IPv4DirectTable directTable;
+    private LookupCache<CityEntry> cache;
+    private int[] addresses;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        List<CityEntry> entries = Fixtures.cityEntries(ranges, 42);
+        CityDatabaseWriter writer = new CityDatabaseWriter();
+        entries.forEach(writer::add);
+
+        file = Files.createTempFile("addr-benchmark", ".bin");
+        writer.write(file);
+        cityDatabase = CityDatabase.open(file);
+
+        IPv4DirectTable.Builder builder = IPv4DirectTable.builder();
+        for (int range = 0; range < cityDatabase.ipv4Count(); range++) {
+            builder.add(cityDatabase.ipv4Start(range), cityDatabase.ipv4End(range), range);
+        }
+        directTable = builder.build();
+        System.out.println("Direct table: " + directTable.memoryBytes() / (1024 * 1024) + " MB, "
+                + directTable.splitBlocks() + " split blocks");
+
+        addresses = Fixtures.ipv4Addresses(PROBES, ranges * 512, 7);
+        cache = LookupCache.create(PROBES * 4, this::entry, (high, low) -> null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int findRange() {
+        return cityDatabase.findIPv4(addresses[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public int findRangeDirect() {
+        return directTable.find(addresses[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public CityEntry lookupEntry() {
+        return entry(addresses[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public CityEntry lookupEntryCached() {
+        return cache.get(addresses[next++ & (PROBES - 1)]);
+    }
+
+    private CityEntry entry(int address) {
+        int range = cityDatabase.findIPv4(address);
+        return range < 0 ? null : cityDatabase.ipv4Entry(range);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import com.opencsv.CSVWriter;
+import io.github.secwrk.addr.SplitFileWriter;
+import io.github.secwrk.addr.city.CityCsvEncoder;
+import io.github.secwrk.addr.city.CityEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writing City CSV shards, per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(CityWriteBenchmark.ROWS)
+public class CityWriteBenchmark {
+
+    static final int ROWS = 200_000;
+
+    private List<CityEntry> entries;
+    private Path directory;
+
+    @Setup
+    public void setup() throws IOException {
+        entries = Fixtures.cityEntries(ROWS, 42);
+        directory = Files.createTempDirectory("addr-benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int csvWriter() throws IOException {
+        try (SplitFileWriter writer = new SplitFileWriter(directory.resolve("City.csv").toString(), 50_000)) {
+            StringWriter row = new StringWriter(256);
+            try (CSVWriter csvWriter = new CSVWriter(row)) {
+                for (CityEntry cityEntry : entries) {
+                    csvWriter.writeNext(new String[]{
+                            cityEntry.ipStart(),
+                            cityEntry.ipEnd(),
+                            cityEntry.continentCode(),
+                            cityEntry.countryCode(),
+                            cityEntry.continentName(),
+                            cityEntry.countryName(),
+                            cityEntry.stateProvince(),
+                            cityEntry.city(),
+                            String.valueOf(cityEntry.latitude()),
+                            String.valueOf(cityEntry.longitude())
+                    });
+                    writer.writeRow(row.getBuffer());
+                    row.getBuffer().setLength(0);
+                }
+            }
+            return writer.filesCount();
+        }
+    }
+
+    @Benchmark
+    public int cityCsvEncoder() throws IOException {
+        try (SplitFileWriter writer = new SplitFileWriter(directory.resolve("City.csv").toString(), 50_000)) {
+            CityCsvEncoder encoder = new CityCsvEncoder();
+            for (CityEntry cityEntry : entries) {
+                writer.writeRow(encoder.buffer(), 0, encoder.encode(cityEntry));
+            }
+            return writer.filesCount();
+        }
+    }
+}
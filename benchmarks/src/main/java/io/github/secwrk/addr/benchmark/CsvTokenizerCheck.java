@@ -0,0 +1,239 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import com.opencsv.CSVReader;
+import io.github.secwrk.addr.CsvTokenizer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares rows of {@link CsvTokenizer} with rows of opencsv {@link CSVReader} with default settings
+ * on random CSV documents with quotes, doubled quotes, escapes, multi-line fields and
+ * {@code \n}, {@code \r\n} and lone {@code \r} line separators. Input is fed in short reads, so
+ * rows and line separators are split across buffer fills. Documents without line breaks inside
+ * quotes are also read in regions split by {@link CsvTokenizer#rowStart(FileChannel, long)},
+ * all with one tokenizer moved by {@link CsvTokenizer#reset(long, long)}.
+ * <p>
+ * Run with {@code java -cp benchmarks/target/benchmarks.jar io.github.secwrk.addr.benchmark.CsvTokenizerCheck [documents] [seed]},
+ * exits with status 1 on first difference.
+ */
+public final class CsvTokenizerCheck {
+
+    private static final String[] PLAIN = {"", "a", "bc", "1.5", "-0.25", "1e3", "Zürich", "東京", " x "};
+    private static final String[] SEPARATORS = {"\n", "\n", "\r\n", "\r\n", "\r"};
+
+    private CsvTokenizerCheck() {
+        // Prevent outside initialization
+    }
+
+    public static void main(String[] args) throws IOException {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+        Random random = new Random(seed);
+        Path file = Files.createTempFile("csv-tokenizer-check", ".csv");
+        try {
+            long rows = 0;
+            long regionChecks = 0;
+            for (int i = 0; i < documents; i++) {
+                boolean lineBreaksInQuotes = random.nextBoolean();
+                byte[] document = document(random, lineBreaksInQuotes);
+
+                Result expected = readCsvReader(document);
+                Result actual = readTokenizer(new Trickle(new ByteArrayInputStream(document), random));
+                compare(document, "stream", expected, actual);
+                rows += expected.rows.size();
+
+                // Regions need one row per line, stray quotes can also make opencsv join lines
+                if (!lineBreaksInQuotes && expected.error == null && lineCount(document) == expected.rows.size()) {
+                    Files.write(file, document);
+                    compare(document, "regions", expected, readRegions(file, random));
+                    regionChecks++;
+                }
+            }
+            System.out.println("Identical rows for " + documents + " documents (" + rows + " rows, "
+                    + regionChecks + " also read in regions)");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Create a random document, rows have a random number of fields
+     */
+    private static byte[] document(Random random, boolean lineBreaksInQuotes) {
+        StringBuilder builder = new StringBuilder();
+        int rows = random.nextInt(30);
+        for (int row = 0; row < rows; row++) {
+            int fields = 1 + random.nextInt(6);
+            for (int field = 0; field < fields; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                builder.append(field(random, lineBreaksInQuotes));
+            }
+            if (row < rows - 1 || random.nextInt(4) != 0) {
+                builder.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String field(Random random, boolean lineBreaksInQuotes) {
+        String plain = PLAIN[random.nextInt(PLAIN.length)];
+        int kind = random.nextInt(10);
+        if (kind < 5) {
+            return plain;
+        }
+        if (kind < 7) {
+            return "\"" + plain + "," + plain + "\"";
+        }
+        if (kind == 7) {
+            return "\"" + plain + "\"\"" + plain + "\"";
+        }
+        if (kind == 8) {
+            return random.nextBoolean() ? plain + "\\\"" + plain : "\"" + plain + "\\\"" + plain + "\"";
+        }
+        if (lineBreaksInQuotes) {
+            return "\"" + plain + SEPARATORS[random.nextInt(SEPARATORS.length)] + plain + "\"";
+        }
+        // Stray quote inside an unquoted field
+        return plain + "\"" + plain;
+    }
+
+    private static long lineCount(byte[] document) {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(document), StandardCharsets.UTF_8)).lines().count();
+    }
+
+    private static Result readCsvReader(byte[] document) throws IOException {
+        Result result = new Result();
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(document), StandardCharsets.UTF_8))) {
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                result.rows.add(row);
+            }
+        } catch (Exception ex) {
+            result.error = ex;
+        }
+        return result;
+    }
+
+    private static Result readTokenizer(InputStream stream) throws IOException {
+        Result result = new Result();
+        try (CsvTokenizer tokenizer = CsvTokenizer.from(stream)) {
+            read(tokenizer, result);
+        } catch (IllegalArgumentException ex) {
+            result.error = ex;
+        }
+        return result;
+    }
+
+    private static Result readRegions(Path file, Random random) throws IOException {
+        Result result = new Result();
+        try (FileChannel channel = FileChannel.open(file);
+             CsvTokenizer tokenizer = CsvTokenizer.open(channel, 0, 0)) {
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = CsvTokenizer.rowStart(channel, Math.min(size, start + 1 + random.nextInt(64)));
+                tokenizer.reset(start, end);
+                read(tokenizer, result);
+                start = end;
+            }
+        }
+        return result;
+    }
+
+    private static void read(CsvTokenizer tokenizer, Result result) throws IOException {
+        while (tokenizer.next()) {
+            String[] row = new String[tokenizer.fieldCount()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = tokenizer.string(i);
+                if (!row[i].equals(tokenizer.intern(i))) {
+                    throw new IllegalStateException("intern(" + i + ") differs from string(" + i + ") for " + row[i]);
+                }
+            }
+            result.rows.add(row);
+        }
+    }
+
+    private static void compare(byte[] document, String mode, Result expected, Result actual) {
+        boolean same = expected.rows.size() == actual.rows.size()
+                && (expected.error == null) == (actual.error == null);
+        for (int i = 0; same && i < expected.rows.size(); i++) {
+            same = Arrays.equals(expected.rows.get(i), actual.rows.get(i));
+        }
+        if (!same) {
+            System.out.println("Rows differ (" + mode + ") for document: "
+                    + escape(new String(document, StandardCharsets.UTF_8)));
+            System.out.println("CSVReader:    " + expected);
+            System.out.println("CsvTokenizer: " + actual);
+            System.exit(1);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\r", "\\r").replace("\n", "\\n");
+    }
+
+    /**
+     * Rows read, and error if reading stopped with one
+     */
+    private static final class Result {
+        private final List<String[]> rows = new ArrayList<>();
+        private Exception error;
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String[] row : rows) {
+                builder.append(escape(Arrays.toString(row))).append(' ');
+            }
+            return error != null ? builder + "error: " + error : builder.toString();
+        }
+    }
+
+    /**
+     * Returns at most a few bytes per read
+     */
+    private static final class Trickle extends FilterInputStream {
+        private final Random random;
+
+        private Trickle(InputStream in, Random random) {
+            super(in);
+            this.random = random;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return super.read(bytes, offset, Math.min(length, 1 + random.nextInt(8)));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import com.google.gson.JsonObject;
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.city.CityEntry;
+import io.github.secwrk.addr.city.GeoNameCountryEntry;
+import io.github.secwrk.addr.city.Iso3166Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic, reproducible data shaped like ip2asn and DB-IP files.
+ */
+final class Fixtures {
+
+    private static final String[] CONTINENTS = {"AS", "AF", "EU", "NA", "SA", "OC", "AN"};
+    private static final String[] REGIONS = {"Asia", "Africa", "Europe", "Americas", "Americas", "Oceania", ""};
+
+    /**
+     * Country codes, in the shape of ISO 3166 alpha-2 codes (about 250 of them)
+     */
+    static final String[] COUNTRY_CODES = countryCodes();
+
+    /**
+     * Create ip2asn-combined shaped TSV lines. Ranges are contiguous and sorted,
+     * one in ten of them is IPv6.
+     */
+    static String[] ip2asnLines(int count, long seed) {
+        Random random = new Random(seed);
+        String[] lines = new String[count];
+        int v4Count = count - count / 10;
+
+        long ipv4 = 1L << 24;
+        for (int i = 0; i < v4Count; i++) {
+            long end = ipv4 + random.nextInt(4096);
+            lines[i] = IPParser.formatIPv4((int) ipv4) + "\t" + IPParser.formatIPv4((int) end) + "\t" + asn(random) + "\t"
+                    + COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)] + "\t" + organization(random);
+            ipv4 = end + 1 + random.nextInt(2);
+        }
+
+        long ipv6 = 0x2001_0000_0000_0000L;
+        for (int i = v4Count; i < count; i++) {
+            long end = ipv6 + random.nextInt(1 << 16);
+            lines[i] = IPParser.formatIPv6(ipv6, 0) + "\t" + IPParser.formatIPv6(end, -1) + "\t" + asn(random) + "\t"
+                    + COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)] + "\t" + organization(random);
+            ipv6 = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Create DB-IP City Lite shaped rows
+     * ({@code ip_start, ip_end, continent, country, stateprov, city, latitude, longitude}).
+     */
+    static String[][] cityRows(int count, long seed) {
+        Random random = new Random(seed);
+        String[][] rows = new String[count][];
+        long ipv4 = 1L << 24;
+        for (int i = 0; i < count; i++) {
+            long end = ipv4 + random.nextInt(1024);
+            int country = random.nextInt(COUNTRY_CODES.length);
+            int city = random.nextInt(20_000);
+            rows[i] = new String[]{
+                    IPParser.formatIPv4((int) ipv4),
+                    IPParser.formatIPv4((int) end),
+                    CONTINENTS[country % CONTINENTS.length],
+                    COUNTRY_CODES[country],
+                    "State " + (city % 300),
+                    city % 17 == 0 ? "City, \"" + city + "\"" : "City " + city,
+                    String.valueOf((float) ((city * 7919 % 18000) / 100.0 - 90)),
+                    String.valueOf((float) ((city * 104729 % 36000) / 100.0 - 180))
+            };
+            ipv4 = end + 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Create enriched {@link CityEntry} instances from {@link #cityRows(int, long)}
+     */
+    static List<CityEntry> cityEntries(int count, long seed) {
+        List<CityEntry> entries = new ArrayList<>(count);
+        for (String[] row : cityRows(count, seed)) {
+            entries.add(CityEntry.from(row[0], row[1], row[2], row[3], row[4], row[5],
+                    Float.parseFloat(row[6]), Float.parseFloat(row[7]), "Country " + row[3], "Continent " + row[2]));
+        }
+        return entries;
+    }
+
+    /**
+     * ISO 3166 entries for all but the last ten of {@link #COUNTRY_CODES}
+     */
+    static List<Iso3166Entry> isoEntries() {
+        List<Iso3166Entry> entries = new ArrayList<>();
+        for (int i = 0; i < COUNTRY_CODES.length - 10; i++) {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.addProperty("name", "Country " + COUNTRY_CODES[i]);
+            jsonObject.addProperty("alpha-2", COUNTRY_CODES[i]);
+            jsonObject.addProperty("region", REGIONS[i % REGIONS.length]);
+            entries.add(Iso3166Entry.from(jsonObject));
+        }
+        return entries;
+    }
+
+    /**
+     * Geonames entries for all of {@link #COUNTRY_CODES}
+     */
+    static List<GeoNameCountryEntry> geoNameEntries() {
+        List<GeoNameCountryEntry> entries = new ArrayList<>();
+        for (int i = 0; i < COUNTRY_CODES.length; i++) {
+            entries.add(GeoNameCountryEntry.from(COUNTRY_CODES[i], COUNTRY_CODES[i] + "X", "Country " + COUNTRY_CODES[i],
+                    CONTINENTS[i % CONTINENTS.length]));
+        }
+        return entries;
+    }
+
+    /**
+     * Random IPv4 addresses inside the ranges created by this class
+     */
+    static int[] ipv4Addresses(int count, int limit, long seed) {
+        Random random = new Random(seed);
+        int[] addresses = new int[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = (1 << 24) + random.nextInt(limit);
+        }
+        return addresses;
+    }
+
+    private static long asn(Random random) {
+        return 1 + random.nextInt(400_000);
+    }
+
+    private static String organization(Random random) {
+        return "ORG-" + random.nextInt(70_000) + " Networks";
+    }
+
+    private static String[] countryCodes() {
+        String[] codes = new String[250];
+        Random random = new Random(3166);
+        for (int i = 0; i < codes.length; i++) {
+            String code;
+            do {
+                code = "" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26));
+            } while (contains(codes, code));
+            codes[i] = code;
+        }
+        return codes;
+    }
+
+    private static boolean contains(String[] codes, String code) {
+        for (String value : codes) {
+            if (code.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Fixtures() {
+        // Prevent outside initialization
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.benchmark;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.IPv6RangeIndex;
+import io.github.secwrk.addr.asn.ASNRangeIndex;
+import io.github.secwrk.addr.asn.ASNTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPv6 lookup of a single address with {@link IPv6RangeIndex} against IPv4 lookup with {@link ASNRangeIndex},
+ * and parsing address text with {@link IPParser} against {@link IPAddressString}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IPv6LookupBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"10000", "500000"})
+    public int ranges;
+
+    private ASNRangeIndex index;
+    private IPv6RangeIndex v6Index;
+    private int[] ipv4Addresses;
+    private long[] ipv6Addresses;
+    private String[] ipv6Texts;
+    private int next;
+
+    @Setup
+    public void setup() {
+        // Fixtures put one range in ten in IPv6, so IPv6 alone has the requested number of ranges
+        ASNTable.Builder builder = ASNTable.builder();
+        for (String line : Fixtures.ip2asnLines(ranges * 10, 42)) {
+            builder.addTsvLine(line);
+        }
+        ASNTable table = builder.build();
+        index = ASNRangeIndex.from(table);
+
+        int v4Count = table.ipv4Count();
+        int v6Count = table.size() - v4Count;
+        long[] startHi = new long[v6Count];
+        long[] startLo = new long[v6Count];
+        long[] endHi = new long[v6Count];
+        long[] endLo = new long[v6Count];
+        for (int i = 0; i < v6Count; i++) {
+            startHi[i] = table.ipv6StartHigh(v4Count + i);
+            startLo[i] = table.ipv6StartLow(v4Count + i);
+            endHi[i] = table.ipv6EndHigh(v4Count + i);
+            endLo[i] = table.ipv6EndLow(v4Count + i);
+        }
+        v6Index = IPv6RangeIndex.from(startHi, startLo, endHi, endLo);
+
+        Random random = new Random(7);
+        ipv4Addresses = new int[PROBES];
+        ipv6Addresses = new long[PROBES * 2];
+        ipv6Texts = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int row = random.nextInt(ranges);
+            ipv4Addresses[i] = table.ipv4Start(row);
+            ipv6Addresses[i * 2] = startHi[row];
+            ipv6Addresses[i * 2 + 1] = random.nextLong();
+            ipv6Texts[i] = IPParser.formatIPv6(ipv6Addresses[i * 2], ipv6Addresses[i * 2 + 1]);
+        }
+    }
+
+    @Benchmark
+    public int ipv4Find() {
+        int address = ipv4Addresses[next++ & (PROBES - 1)];
+        return index.find(address, address);
+    }
+
+    @Benchmark
+    public int ipv6Find() {
+        int probe = next++ & (PROBES - 1);
+        return v6Index.find(ipv6Addresses[probe * 2], ipv6Addresses[probe * 2 + 1]);
+    }
+
+    @Benchmark
+    public int ipv6ParseAndFind() {
+        long[] address = new long[2];
+        if (!IPParser.parseIPv6(ipv6Texts[next++ & (PROBES - 1)], address)) {
+            return -1;
+        }
+        return v6Index.find(address[0], address[1]);
+    }
+
+    @Benchmark
+    public long ipv6IPAddressString() {
+        IPAddress address = new IPAddressString(ipv6Texts[next++ & (PROBES - 1)]).getAddress();
+        return index.asn(address);
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import com.opencsv.CSVParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link CsvTokenizer} splits UTF-8 CSV rows into fields directly on bytes, without decoding
+ * rows into characters first.
+ * <p>
+ * Fields are kept as slices of an internal buffer and only turned into objects on request:
+ * {@link #parseFloat(int)} parses numbers straight from bytes, {@link #intern(int)} returns one
+ * shared {@link String} per distinct value of low-cardinality columns, and {@link #string(int)}
+ * creates a new {@link String}.
+ * <p>
+ * Plain and quoted fields with doubled quotes are tokenized on bytes. Rows with anything else,
+ * like escape characters, stray quotes or line breaks inside quotes, are handed to opencsv
+ * {@link CSVParser}, so fields are the same as of opencsv {@code CSVReader} with default settings.
+ * Like {@code CSVReader}, lines end at {@code \n}, {@code \r\n} or a lone {@code \r}.
+ * Instances are not thread-safe.
+ */
+public final class CsvTokenizer implements Closeable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int INTERN_TABLE_SIZE = 1 << 16;
+    private static final int INTERN_MAX_COUNT = INTERN_TABLE_SIZE / 2;
+
+    private static final int INCOMPLETE = -1;
+    private static final int IRREGULAR = -2;
+
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private final InputStream stream;
+    private final FileChannel channel;
+    private long channelPosition;
+    private long channelEnd;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private boolean newlineAppended;
+
+    private int fieldCount;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+
+    /**
+     * Fields of current row if it was parsed by {@link CSVParser}, otherwise {@code null}
+     */
+    private String[] parsedFields;
+    private CSVParser parser;
+
+    private final String[] internStrings = new String[INTERN_TABLE_SIZE];
+    private final byte[][] internBytes = new byte[INTERN_TABLE_SIZE][];
+    private final int[] internHashes = new int[INTERN_TABLE_SIZE];
+    private int internCount;
+
+    private CsvTokenizer(InputStream stream, FileChannel channel, long start, long end) {
+        this.stream = stream;
+        this.channel = channel;
+        this.channelPosition = start;
+        this.channelEnd = end;
+    }
+
+    /**
+     * Tokenize a stream
+     *
+     * @param stream {@link InputStream} of UTF-8 CSV, closed when this instance is closed
+     * @return {@link CsvTokenizer} instance
+     */
+    public static CsvTokenizer from(InputStream stream) {
+        return new CsvTokenizer(stream, null, 0, 0);
+    }
+
+    /**
+     * Tokenize a region of a file with positional reads. Region must start at start of a row.
+     * The channel is not closed when this instance is closed, so several regions can share it.
+     *
+     * @param channel {@link FileChannel} of UTF-8 CSV file
+     * @param start   Start of region
+     * @param end     End of region, exclusive
+     * @return {@link CsvTokenizer} instance
+     */
+    public static CsvTokenizer open(FileChannel channel, long start, long end) {
+        return new CsvTokenizer(null, channel, start, end);
+    }
+
+    /**
+     * Find start of first row at or after a position, used to split a file into regions
+     * for {@link #open(FileChannel, long, long)}. Rows are split on line separators, so the
+     * file must not have line breaks inside quoted fields. A region never starts between
+     * {@code \r} and {@code \n}.
+     *
+     * @param channel  {@link FileChannel} of CSV file
+     * @param position Position to search from
+     * @return Start of row, or size of file if there is no row after position
+     */
+    public static long rowStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+
+        // Position is a row start if previous byte ends a row
+        ByteBuffer scan = ByteBuffer.allocate(8192);
+        long offset = position - 1;
+        while (true) {
+            scan.clear();
+            int count = channel.read(scan, offset);
+            if (count == -1) {
+                return channel.size();
+            }
+            for (int i = 0; i < count; i++) {
+                byte c = scan.get(i);
+                if (c == '\n') {
+                    return offset + i + 1;
+                }
+                if (c == '\r') {
+                    int following = i + 1 < count ? scan.get(i + 1) : byteAt(channel, offset + i + 1);
+                    if (following != '\n') {
+                        return offset + i + 1;
+                    }
+                }
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Continue with another region of the file given to {@link #open(FileChannel, long, long)}.
+     * Buffer and interned strings are kept, so one instance can parse many regions.
+     * Region must start at start of a row.
+     *
+     * @param start Start of region
+     * @param end   End of region, exclusive
+     */
+    public void reset(long start, long end) {
+        if (channel == null) {
+            throw new IllegalStateException("Only a tokenizer of a file region can be reset");
+        }
+        channelPosition = start;
+        channelEnd = end;
+        position = 0;
+        limit = 0;
+        eof = false;
+        newlineAppended = false;
+        fieldCount = 0;
+        parsedFields = null;
+        parser = null;
+    }
+
+    /**
+     * Byte of file at a position, or -1 past end of file
+     */
+    private static int byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        return channel.read(single, position) == 1 ? single.get(0) : -1;
+    }
+
+    /**
+     * Advance to next row
+     *
+     * @return {@link Boolean#FALSE} at end of input
+     */
+    public boolean next() throws IOException {
+        parsedFields = null;
+        while (true) {
+            int result = tokenize();
+            if (result >= 0) {
+                position = result;
+                return true;
+            }
+            if (result == IRREGULAR) {
+                parseRow();
+                return true;
+            }
+
+            if (eof) {
+                if (position == limit) {
+                    return false;
+                }
+                if (newlineAppended) {
+                    throw new IllegalArgumentException("Unterminated quoted field at end of input");
+                }
+                // Last row has no line separator
+                ensureCapacity(1);
+                buffer[limit++] = '\n';
+                newlineAppended = true;
+            } else {
+                fill();
+            }
+        }
+    }
+
+    /**
+     * Number of fields of current row
+     */
+    public int fieldCount() {
+        return parsedFields != null ? parsedFields.length : fieldCount;
+    }
+
+    /**
+     * Field of current row as new {@link String}
+     */
+    public String string(int field) {
+        if (parsedFields != null) {
+            return parsedFields[field];
+        }
+        String value = new String(buffer, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        return escaped[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Field of current row as shared {@link String}, equal values return the same instance.
+     * Meant for low-cardinality columns, once a fixed number of distinct values is reached
+     * new values are returned without being shared.
+     */
+    public String intern(int field) {
+        if (parsedFields != null || escaped[field]) {
+            return string(field);
+        }
+
+        int start = starts[field];
+        int end = ends[field];
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+
+        int mask = INTERN_TABLE_SIZE - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            String value = internStrings[index];
+            if (value == null) {
+                value = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+                if (internCount < INTERN_MAX_COUNT) {
+                    internStrings[index] = value;
+                    internBytes[index] = Arrays.copyOfRange(buffer, start, end);
+                    internHashes[index] = hash;
+                    internCount++;
+                }
+                return value;
+            }
+            if (internHashes[index] == hash && Arrays.equals(internBytes[index], 0, internBytes[index].length, buffer, start, end)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Field of current row parsed as float, same as {@link Float#parseFloat(String)}.
+     * Decimals with up to 7 significant digits and small exponents are parsed exactly
+     * without creating a {@link String}.
+     *
+     * @throws NumberFormatException If field is not a number
+     */
+    public float parseFloat(int field) {
+        if (parsedFields != null || escaped[field]) {
+            return Float.parseFloat(string(field));
+        }
+
+        byte[] bytes = buffer;
+        int start = starts[field];
+        int end = ends[field];
+        int i = start;
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte c = bytes[i];
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > 18) {
+                        return Float.parseFloat(text(start, end));
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (hasDigits && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int value = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9' && value < 1_000; i++) {
+                value = value * 10 + (bytes[i] - '0');
+            }
+            if (i == exponentStart) {
+                return Float.parseFloat(text(start, end));
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        // Both mantissa and power of ten are exact floats, so a single rounding gives the correct result
+        if (!hasDigits || i != end || mantissa > (1 << 24) || exponent < -10 || exponent > 10) {
+            return Float.parseFloat(text(start, end));
+        }
+        float value = exponent < 0
+                ? mantissa / FLOAT_POWERS_OF_TEN[-exponent]
+                : mantissa * FLOAT_POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Tokenize row at {@link #position}
+     *
+     * @return Position after row, {@link #INCOMPLETE} if more input is needed
+     * or {@link #IRREGULAR} if row must be parsed by {@link CSVParser}
+     */
+    private int tokenize() {
+        byte[] bytes = buffer;
+        int end = limit;
+        int i = position;
+        int field = 0;
+
+        while (true) {
+            if (field == starts.length) {
+                starts = Arrays.copyOf(starts, field * 2);
+                ends = Arrays.copyOf(ends, field * 2);
+                escaped = Arrays.copyOf(escaped, field * 2);
+            }
+            if (i >= end) {
+                return INCOMPLETE;
+            }
+
+            if (bytes[i] == '"') {
+                int start = ++i;
+                boolean escapedQuote = false;
+                while (true) {
+                    if (i >= end) {
+                        return INCOMPLETE;
+                    }
+                    byte c = bytes[i];
+                    if (c == '"') {
+                        if (i + 1 >= end) {
+                            return INCOMPLETE;
+                        }
+                        if (bytes[i + 1] != '"') {
+                            break;
+                        }
+                        escapedQuote = true;
+                        i += 2;
+                    } else if (c == '\\' || c == '\n' || c == '\r') {
+                        return IRREGULAR;
+                    } else {
+                        i++;
+                    }
+                }
+                starts[field] = start;
+                ends[field] = i;
+                escaped[field] = escapedQuote;
+
+                // Closing quote must end field
+                if (++i >= end) {
+                    return INCOMPLETE;
+                }
+                byte c = bytes[i];
+                if (c == ',') {
+                    field++;
+                    i++;
+                    continue;
+                }
+                if (c == '\n') {
+                    fieldCount = field + 1;
+                    return i + 1;
+                }
+                if (c == '\r') {
+                    if (i + 1 >= end) {
+                        return INCOMPLETE;
+                    }
+                    if (bytes[i + 1] == '\n') {
+                        fieldCount = field + 1;
+                        return i + 2;
+                    }
+                }
+                return IRREGULAR;
+            }
+
+            int start = i;
+            while (true) {
+                if (i >= end) {
+                    return INCOMPLETE;
+                }
+                byte c = bytes[i];
+                if (c == ',') {
+                    starts[field] = start;
+                    ends[field] = i;
+                    escaped[field] = false;
+                    field++;
+                    i++;
+                    break;
+                }
+                if (c == '\n') {
+                    starts[field] = start;
+                    ends[field] = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                    escaped[field] = false;
+                    fieldCount = field + 1;
+                    return i + 1;
+                }
+                if (c == '"' || c == '\\') {
+                    return IRREGULAR;
+                }
+                if (c == '\r') {
+                    if (i + 1 >= end) {
+                        return INCOMPLETE;
+                    }
+                    if (bytes[i + 1] != '\n') {
+                        // Lone \r ends a line too, left to readLine()
+                        return IRREGULAR;
+                    }
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Parse row at {@link #position} with {@link CSVParser}, reading more lines while a quoted field is open
+     */
+    private void parseRow() throws IOException {
+        if (parser == null) {
+            parser = new CSVParser();
+        }
+        String[] fields = parser.parseLineMulti(readLine());
+        while (parser.isPending()) {
+            String line = readLine();
+            if (line == null) {
+                throw new IllegalArgumentException("Unterminated quoted field at end of input");
+            }
+            // Parser holds back an open field until it is closed, so results are simply appended
+            String[] next = parser.parseLineMulti(line);
+            String[] joined = Arrays.copyOf(fields, fields.length + next.length);
+            System.arraycopy(next, 0, joined, fields.length, next.length);
+            fields = joined;
+        }
+        parsedFields = fields;
+    }
+
+    /**
+     * Read a line at {@link #position} without line separator, same as {@link java.io.BufferedReader#readLine()}
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                byte c = buffer[i];
+                if (c == '\n') {
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + 1;
+                    return line;
+                }
+                if (c == '\r') {
+                    if (i + 1 == limit && !eof) {
+                        // Need next byte to tell \r\n from a lone \r
+                        break;
+                    }
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + 1 < limit && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+                    return line;
+                }
+            }
+            if (eof) {
+                if (position == limit) {
+                    return null;
+                }
+                String line = new String(buffer, position, limit - position, StandardCharsets.UTF_8);
+                position = limit;
+                return line;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Move unread bytes to start of buffer and read more input after them
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        ensureCapacity(BUFFER_SIZE / 4);
+
+        int count;
+        if (stream != null) {
+            count = stream.read(buffer, limit, buffer.length - limit);
+        } else {
+            int length = (int) Math.min(buffer.length - limit, channelEnd - channelPosition);
+            count = length == 0 ? -1 : channel.read(ByteBuffer.wrap(buffer, limit, length), channelPosition);
+            if (count > 0) {
+                channelPosition += count;
+            }
+        }
+
+        if (count == -1) {
+            eof = true;
+        } else {
+            limit += count;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (limit + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, limit + extra));
+        }
+    }
+
+    private String text(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link Delta} compares a new generated snapshot with the previous one, so a run only
+ * changes what actually changed.
+ * <p>
+ * Snapshots are CSV files sorted by start of IP range (first column), IPv4 ranges before
+ * IPv6 ranges, which is the order of DB-IP files and of every file Addr writes.
+ * Delta files hold one line per difference, the original CSV line prefixed by an operation:
+ * {@code +} for an added range, {@code -} for a removed range and {@code ~} for a range
+ * whose attributes changed (holding the new line).
+ * <p>
+ * Incremental mode is enabled with {@code -Daddr.incremental=true}. Processors then write into
+ * {@link #stagingDirectory()}, write a delta against the previous snapshot in "generated" and
+ * only replace generated files whose content changed.
+ */
+public final class Delta {
+
+    private static final int COMPARE_BUFFER_SIZE = 65_536;
+    private static final boolean INCREMENTAL = Boolean.getBoolean("addr.incremental");
+
+    /**
+     * Counts of a delta
+     */
+    public record Stats(long added, long removed, long changed, long unchanged) {
+
+        /**
+         * Returns {@link Boolean#TRUE} if snapshots are equal
+         */
+        public boolean isEmpty() {
+            return added == 0 && removed == 0 && changed == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "added=" + added + ", removed=" + removed + ", changed=" + changed + ", unchanged=" + unchanged;
+        }
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if incremental mode is enabled
+     */
+    public static boolean isIncremental() {
+        return INCREMENTAL;
+    }
+
+    /**
+     * Directory new snapshots are written to before they are compared with previous snapshot
+     */
+    public static Path stagingDirectory() throws IOException {
+        return Files.createDirectories(Path.of("generated", ".next"));
+    }
+
+    /**
+     * Write delta between two snapshots by merging both in a single sequential pass.
+     *
+     * @param previous  Files of previous snapshot in order, missing files are treated as empty
+     * @param next      Files of new snapshot in order
+     * @param deltaPath Path of delta file to write
+     * @return {@link Stats} of delta
+     */
+    public static Stats write(List<Path> previous, List<Path> next, Path deltaPath) throws IOException {
+        long added = 0, removed = 0, changed = 0, unchanged = 0;
+
+        try (Stream<String> previousLines = lines(previous);
+             Stream<String> nextLines = lines(next);
+             BufferedWriter writer = Files.newBufferedWriter(deltaPath, StandardCharsets.UTF_8)) {
+            Iterator<String> previousIterator = previousLines.iterator();
+            Iterator<String> nextIterator = nextLines.iterator();
+
+            String previousLine = previousIterator.hasNext() ? previousIterator.next() : null;
+            String nextLine = nextIterator.hasNext() ? nextIterator.next() : null;
+            long[] previousKey = previousLine == null ? null : key(previousLine);
+            long[] nextKey = nextLine == null ? null : key(nextLine);
+
+            while (previousLine != null || nextLine != null) {
+                int cmp = previousLine == null ? 1 : nextLine == null ? -1 : compare(previousKey, nextKey);
+                if (cmp < 0) {
+                    write(writer, '-', previousLine);
+                    removed++;
+                } else if (cmp > 0) {
+                    write(writer, '+', nextLine);
+                    added++;
+                } else if (!previousLine.equals(nextLine)) {
+                    write(writer, '~', nextLine);
+                    changed++;
+                } else {
+                    unchanged++;
+                }
+
+                if (cmp <= 0) {
+                    previousLine = previousIterator.hasNext() ? previousIterator.next() : null;
+                    previousKey = previousLine == null ? null : key(previousLine);
+                }
+                if (cmp >= 0) {
+                    nextLine = nextIterator.hasNext() ? nextIterator.next() : null;
+                    nextKey = nextLine == null ? null : key(nextLine);
+                }
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        return new Stats(added, removed, changed, unchanged);
+    }
+
+    /**
+     * Move {@code source} over {@code target} only if their contents differ,
+     * otherwise delete {@code source} and leave {@code target} untouched.
+     *
+     * @return {@link Boolean#TRUE} if {@code target} was rewritten
+     */
+    public static boolean replaceIfChanged(Path source, Path target) throws IOException {
+        if (Files.exists(target) && sameContent(source, target)) {
+            Files.delete(source);
+            return false;
+        }
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private static boolean sameContent(Path first, Path second) throws IOException {
+        if (Files.size(first) != Files.size(second)) {
+            return false;
+        }
+
+        try (InputStream firstStream = Files.newInputStream(first);
+             InputStream secondStream = Files.newInputStream(second)) {
+            byte[] firstBuffer = new byte[COMPARE_BUFFER_SIZE];
+            byte[] secondBuffer = new byte[COMPARE_BUFFER_SIZE];
+            int count;
+            while ((count = firstStream.readNBytes(firstBuffer, 0, COMPARE_BUFFER_SIZE)) > 0) {
+                if (secondStream.readNBytes(secondBuffer, 0, count) != count ||
+                        !Arrays.equals(firstBuffer, 0, count, secondBuffer, 0, count)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static Stream<String> lines(List<Path> paths) {
+        return paths.stream()
+                .filter(Files::exists)
+                .flatMap(path -> {
+                    try {
+                        return Files.lines(path, StandardCharsets.UTF_8);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+    }
+
+    private static void write(BufferedWriter writer, char operation, String line) throws IOException {
+        writer.write(operation);
+        writer.write(',');
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    /**
+     * Sort key of a line: address family, high and low 64 bits of start of range
+     */
+    private static long[] key(String line) {
+        int start = 0;
+        int end = line.indexOf(',');
+        if (end < 0) {
+            end = line.length();
+        }
+        if (end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"') {
+            start++;
+            end--;
+        }
+
+        long ipv4 = IPParser.parseIPv4(line, start, end);
+        if (ipv4 >= 0) {
+            return new long[]{4, 0, ipv4};
+        }
+
+        long[] ipv6 = new long[2];
+        if (!IPParser.parseIPv6(line, start, end, ipv6)) {
+            throw new IllegalArgumentException("Invalid IP Address: " + line.substring(start, end));
+        }
+        return new long[]{6, ipv6[0], ipv6[1]};
+    }
+
+    private static int compare(long[] first, long[] second) {
+        int cmp = Long.compare(first[0], second[0]);
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(first[1], second[1]);
+        }
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(first[2], second[2]);
+        }
+        return cmp;
+    }
+
+    private Delta() {
+        // Prevent outside initialization
+    }
+}
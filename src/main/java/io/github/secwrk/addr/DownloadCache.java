@@ -0,0 +1,273 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * {@link DownloadCache} keeps downloaded files on disk and revalidates them with conditional GET
+ * requests, so a source which did not change is neither transferred nor processed again.
+ * <p>
+ * Files are stored content-addressed under "objects" by their SHA-256, next to one entry per URL
+ * under "entries" which holds the ETag and Last-Modified validators sent by the server.
+ * A file is reported as unchanged if the server answers 304 Not Modified, or if it sends
+ * the same content again. Large files can be fetched with {@link RangedDownloader}, in which case
+ * they are revalidated with a HEAD request first.
+ */
+public final class DownloadCache {
+
+    private static final int BUFFER_SIZE = 65_536;
+
+    private final Path objects;
+    private final Path entries;
+
+    /**
+     * Result of a cached download
+     *
+     * @param path      Path of cached file, must not be modified
+     * @param sha256    SHA-256 of file content as hex
+     * @param unchanged {@link Boolean#TRUE} if file is the same as of previous download. This only says
+     *                  that the download did not change, not that outputs built from it are up to date.
+     */
+    public record Result(Path path, String sha256, boolean unchanged) {
+    }
+
+    private DownloadCache(Path objects, Path entries) {
+        this.objects = objects;
+        this.entries = entries;
+    }
+
+    /**
+     * Open a {@link DownloadCache}, creating its directory if needed
+     *
+     * @param directory Cache directory
+     * @return {@link DownloadCache} instance
+     */
+    public static DownloadCache open(Path directory) throws IOException {
+        return new DownloadCache(Files.createDirectories(directory.resolve("objects")),
+                Files.createDirectories(directory.resolve("entries")));
+    }
+
+    /**
+     * Download a file unless cached copy is still valid
+     *
+     * @param url URL of file
+     * @return {@link Result} of download
+     */
+    public Result fetch(String url) throws IOException {
+        try {
+            return fetchAsync(url).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            if (ex.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Download a file asynchronously unless cached copy is still valid
+     *
+     * @param url URL of file
+     * @return {@link CompletableFuture} which completes with {@link Result} of download
+     */
+    public CompletableFuture<Result> fetchAsync(String url) {
+        return fetchAsync(url, false);
+    }
+
+    /**
+     * Download a file asynchronously unless cached copy is still valid
+     *
+     * @param url    URL of file
+     * @param ranged {@link Boolean#TRUE} to download a changed file with {@link RangedDownloader},
+     *               an interrupted download is then resumed by the next call
+     * @return {@link CompletableFuture} which completes with {@link Result} of download
+     */
+    public CompletableFuture<Result> fetchAsync(String url, boolean ranged) {
+        String urlHash = sha256(url.getBytes(StandardCharsets.UTF_8));
+        Path entryPath = entries.resolve(urlHash + ".properties");
+        Properties entry;
+        try {
+            entry = readEntry(entryPath);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        String previousHash = entry.getProperty("sha256");
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(url));
+
+        // Only revalidate if cached file is still there
+        if (previousHash != null && Files.exists(objects.resolve(previousHash))) {
+            if (entry.getProperty("etag") != null) {
+                request.header("If-None-Match", entry.getProperty("etag"));
+            }
+            if (entry.getProperty("lastModified") != null) {
+                request.header("If-Modified-Since", entry.getProperty("lastModified"));
+            }
+        }
+
+        if (ranged) {
+            // Revalidate with HEAD, body is fetched by RangedDownloader only if file changed
+            return Downloader.HTTP_CLIENT.sendAsync(request.method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                            HttpResponse.BodyHandlers.discarding())
+                    .thenCompose(httpResponse -> {
+                        if (httpResponse.statusCode() == 304) {
+                            return CompletableFuture.completedFuture(new Result(objects.resolve(previousHash), previousHash, true));
+                        }
+                        if (httpResponse.statusCode() != 200) {
+                            // HEAD is not supported, fall back to a plain download
+                            return fetchAsync(url, false);
+                        }
+
+                        Path partial = objects.resolve(urlHash + ".part");
+                        CompletableFuture<Result> future = new CompletableFuture<>();
+                        new Thread(() -> {
+                            try {
+                                RangedDownloader.download(url, partial);
+                                future.complete(store(url, partial, httpResponse.headers(), entryPath, previousHash));
+                            } catch (Exception ex) {
+                                future.completeExceptionally(ex);
+                            }
+                        }, "RangedDownloader").start();
+                        return future;
+                    });
+        }
+
+        Path temporary;
+        try {
+            temporary = Files.createTempFile(objects, "download", ".tmp");
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        return Downloader.HTTP_CLIENT.sendAsync(request.GET().build(), responseInfo -> responseInfo.statusCode() == 200
+                        ? HttpResponse.BodySubscribers.ofFile(temporary)
+                        : HttpResponse.BodySubscribers.replacing(temporary))
+                .thenApply(httpResponse -> {
+                    try {
+                        if (httpResponse.statusCode() == 304) {
+                            Files.deleteIfExists(temporary);
+                            return new Result(objects.resolve(previousHash), previousHash, true);
+                        }
+                        if (httpResponse.statusCode() != 200) {
+                            Files.deleteIfExists(temporary);
+                            throw new IllegalStateException("Unexpected status " + httpResponse.statusCode() + " for " + url);
+                        }
+                        return store(url, temporary, httpResponse.headers(), entryPath, previousHash);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+    }
+
+    /**
+     * Move a downloaded file to its content address and record validators of its URL
+     */
+    private Result store(String url, Path downloaded, HttpHeaders headers, Path entryPath, String previousHash) throws IOException {
+        String hash = sha256(downloaded);
+        Path object = objects.resolve(hash);
+        Files.move(downloaded, object, StandardCopyOption.REPLACE_EXISTING);
+
+        Properties entry = new Properties();
+        entry.setProperty("url", url);
+        entry.setProperty("sha256", hash);
+        headers.firstValue("ETag").ifPresent(value -> entry.setProperty("etag", value));
+        headers.firstValue("Last-Modified").ifPresent(value -> entry.setProperty("lastModified", value));
+        writeEntry(entryPath, entry);
+
+        if (previousHash != null && !previousHash.equals(hash)) {
+            deleteIfUnreferenced(previousHash);
+        }
+        return new Result(object, hash, hash.equals(previousHash));
+    }
+
+    private Properties readEntry(Path path) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+
+    private void writeEntry(Path path, Properties properties) throws IOException {
+        // Entry is replaced at once, so a crash never leaves half an entry behind
+        Path temporary = Files.createTempFile(entries, "entry", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void deleteIfUnreferenced(String hash) throws IOException {
+        try (Stream<Path> paths = Files.list(entries)) {
+            for (Path path : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(".properties"))::iterator) {
+                if (hash.equals(readEntry(path).getProperty("sha256"))) {
+                    return;
+                }
+            }
+        }
+        Files.deleteIfExists(objects.resolve(hash));
+    }
+
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sha256(byte[] bytes) {
+        return HexFormat.of().formatHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
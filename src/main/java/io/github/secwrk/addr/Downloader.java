@@ -15,23 +15,28 @@
  */
 package io.github.secwrk.addr;
 
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 public final class Downloader {
 
     private static final int BUFFER_SIZE = 16_384;
-    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+    static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
             .version(HttpClient.Version.HTTP_1_1)
             .followRedirects(HttpClient.Redirect.NEVER)
             .build();
@@ -54,6 +59,66 @@ public final class Downloader {
         decompress(httpResponse.body(), path);
     }
 
+    /**
+     * Download a gzip compressed file and hand each decompressed line to a {@link LineConsumer}
+     * as it arrives. Neither the compressed nor the decompressed file is held in memory.
+     *
+     * @param url      URL of gzip compressed file
+     * @param consumer {@link LineConsumer} which receives each line
+     */
+    public static void downloadCompressedLines(String url, LineConsumer consumer) throws IOException, InterruptedException {
+        HttpResponse<InputStream> httpResponse = HTTP_CLIENT.send(HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(url))
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        decompress(httpResponse.body(), consumer);
+    }
+
+    /**
+     * Download a file asynchronously and store it as it is, without decompressing it.
+     *
+     * @param url  URL of file
+     * @param path Path to store file at
+     * @return {@link CompletableFuture} which completes with {@code path} once file is stored
+     */
+    public static CompletableFuture<Path> downloadAsync(String url, Path path) {
+        return HTTP_CLIENT.sendAsync(HttpRequest.newBuilder()
+                        .GET()
+                        .uri(URI.create(url))
+                        .build(), HttpResponse.BodyHandlers.ofFile(path))
+                .thenApply(httpResponse -> {
+                    if (httpResponse.statusCode() != 200) {
+                        throw new IllegalStateException("Unexpected status " + httpResponse.statusCode() + " for " + url);
+                    }
+                    return httpResponse.body();
+                });
+    }
+
+    /**
+     * Decompress a gzip compressed file
+     *
+     * @param source Path of gzip compressed file
+     * @param target Path to store decompressed file at
+     */
+    public static void decompressFile(Path source, Path target) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            decompress(inputStream, target);
+        }
+    }
+
+    /**
+     * Decompress a gzip compressed file and hand each line to a {@link LineConsumer}
+     *
+     * @param source   Path of gzip compressed file
+     * @param consumer {@link LineConsumer} which receives each line
+     */
+    public static void readCompressedLines(Path source, LineConsumer consumer) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            decompress(inputStream, consumer);
+        }
+    }
+
     public static Stream<String> downloadAsStream(String url) throws IOException, InterruptedException {
         HttpResponse<Stream<String>> httpResponse = HTTP_CLIENT.send(HttpRequest.newBuilder()
                 .GET()
@@ -72,15 +137,9 @@ public final class Downloader {
     }
 
     private static byte[] decompress(InputStream in) {
-        try (GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(in);
+        try (PipelinedInflater inflater = PipelinedInflater.start(in);
              ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            int count;
-            byte[] data = new byte[BUFFER_SIZE];
-
-            while ((count = gzipIn.read(data, 0, BUFFER_SIZE)) != -1) {
-                outputStream.write(data, 0, count);
-            }
-
+            inflater.transferTo(outputStream);
             return outputStream.toByteArray();
         } catch (Exception ex) {
             throw new IllegalArgumentException("Caught error while processing archive", ex);
@@ -88,21 +147,41 @@ public final class Downloader {
     }
 
     private static void decompress(InputStream is, Path path) {
-        try (GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(is);
-             FileOutputStream outputStream = new FileOutputStream(path.toFile())) {
-            int count;
-            byte[] data = new byte[BUFFER_SIZE];
-
-            while ((count = gzipIn.read(data, 0, BUFFER_SIZE)) != -1) {
-                outputStream.write(data, 0, count);
+        try (PipelinedInflater inflater = PipelinedInflater.start(is);
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Direct buffers are written as they are, without copying them to heap
+            ByteBuffer buffer;
+            while ((buffer = inflater.next()) != null) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
             }
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Caught error while processing archive", ex);
+        }
+    }
 
-            outputStream.flush();
+    private static void decompress(InputStream is, LineConsumer consumer) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(PipelinedInflater.start(is),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
         } catch (Exception ex) {
             throw new IllegalArgumentException("Caught error while processing archive", ex);
         }
     }
 
+    /**
+     * Receives decompressed lines from {@link #downloadCompressedLines(String, LineConsumer)}
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+        void accept(String line) throws IOException;
+    }
+
     private Downloader() {
         // Prevent outside initialization
     }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+/**
+ * {@link IPParser} converts IP address text to primitive numbers and back
+ * without going through {@link java.net.InetAddress} or {@code inet.ipaddr} objects.
+ * <p>
+ * IPv4 addresses are represented as unsigned values in a {@code long} (or the raw bits in an {@code int}),
+ * IPv6 addresses as a pair of {@code long} holding the high and low 64 bits.
+ */
+public final class IPParser {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Parse IPv4 address text
+     *
+     * @param text IPv4 address in dotted-decimal notation
+     * @return Unsigned address value, or -1 if text is not a valid IPv4 address
+     */
+    public static long parseIPv4(CharSequence text) {
+        return parseIPv4(text, 0, text.length());
+    }
+
+    /**
+     * Parse IPv4 address text between {@code start} (inclusive) and {@code end} (exclusive)
+     *
+     * @return Unsigned address value, or -1 if text is not a valid IPv4 address
+     */
+    public static long parseIPv4(CharSequence text, int start, int end) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.') {
+                if (octet < 0 || ++octets > 3) {
+                    return -1;
+                }
+                value = value << 8 | octet;
+                octet = -1;
+            } else {
+                return -1;
+            }
+        }
+
+        if (octet < 0 || octets != 3) {
+            return -1;
+        }
+        return value << 8 | octet;
+    }
+
+    /**
+     * Parse IPv6 address text
+     *
+     * @param text IPv6 address text, with optional "::" compression and IPv4 suffix
+     * @param out  Array receiving high 64 bits at index 0 and low 64 bits at index 1
+     * @return {@link Boolean#TRUE} if text is a valid IPv6 address else {@link Boolean#FALSE}
+     */
+    public static boolean parseIPv6(CharSequence text, long[] out) {
+        return parseIPv6(text, 0, text.length(), out);
+    }
+
+    /**
+     * Parse IPv6 address text between {@code start} (inclusive) and {@code end} (exclusive)
+     *
+     * @param out Array receiving high 64 bits at index 0 and low 64 bits at index 1
+     * @return {@link Boolean#TRUE} if text is a valid IPv6 address else {@link Boolean#FALSE}
+     */
+    public static boolean parseIPv6(CharSequence text, int start, int end, long[] out) {
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headCount = 0, tailCount = 0;
+        boolean compressed = false;
+
+        int i = start;
+        if (end - start >= 2 && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+            compressed = true;
+            i += 2;
+        } else if (i >= end || text.charAt(i) == ':') {
+            return false;
+        }
+
+        while (i < end) {
+            int groupStart = i;
+            int group = 0;
+            int digits = 0;
+            int hex;
+            while (i < end && (hex = hexValue(text.charAt(i))) >= 0) {
+                group = group << 4 | hex;
+                if (++digits > 4) {
+                    return false;
+                }
+                i++;
+            }
+
+            int groups = 1;
+            if (i < end && text.charAt(i) == '.') {
+                // Embedded IPv4 address is always the last part and counts as two groups
+                long ipv4 = parseIPv4(text, groupStart, end);
+                if (ipv4 < 0) {
+                    return false;
+                }
+                groups = 2;
+                group = (int) ipv4;
+                i = end;
+            } else if (digits == 0) {
+                return false;
+            }
+
+            if (compressed) {
+                tailHi = groups == 2 ? tailHi << 32 | tailLo >>> 32 : tailHi << 16 | tailLo >>> 48;
+                tailLo = groups == 2 ? tailLo << 32 | (group & 0xFFFFFFFFL) : tailLo << 16 | group;
+                tailCount += groups;
+            } else {
+                headHi = groups == 2 ? headHi << 32 | headLo >>> 32 : headHi << 16 | headLo >>> 48;
+                headLo = groups == 2 ? headLo << 32 | (group & 0xFFFFFFFFL) : headLo << 16 | group;
+                headCount += groups;
+            }
+            if (headCount + tailCount > 8) {
+                return false;
+            }
+
+            if (i == end) {
+                break;
+            }
+            if (text.charAt(i) != ':' || ++i == end) {
+                return false;
+            }
+            if (text.charAt(i) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i++;
+            }
+        }
+
+        int total = headCount + tailCount;
+        if (compressed ? total > 7 : total != 8) {
+            return false;
+        }
+
+        // Move head groups to the top of the address and merge the tail below them
+        int shift = (8 - headCount) * 16;
+        if (shift >= 128) {
+            headHi = 0;
+            headLo = 0;
+        } else if (shift >= 64) {
+            headHi = headLo << (shift - 64);
+            headLo = 0;
+        } else if (shift > 0) {
+            headHi = headHi << shift | headLo >>> (64 - shift);
+            headLo = headLo << shift;
+        }
+
+        out[0] = headHi | tailHi;
+        out[1] = headLo | tailLo;
+        return true;
+    }
+
+    /**
+     * Format an IPv4 address in dotted-decimal notation
+     *
+     * @param address Raw address bits
+     * @return Address text
+     */
+    public static String formatIPv4(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+    }
+
+    /**
+     * Format an IPv6 address in canonical (RFC 5952) notation
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return Address text
+     */
+    public static String formatIPv6(long high, long low) {
+        // Find the longest run of zero groups, RFC 5952 only compresses runs of two or more
+        int bestStart = -1, bestLength = 1;
+        int runStart = -1;
+        for (int i = 0; i <= 8; i++) {
+            if (i < 8 && group(high, low, i) == 0) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+            } else if (runStart >= 0) {
+                if (i - runStart > bestLength) {
+                    bestStart = runStart;
+                    bestLength = i - runStart;
+                }
+                runStart = -1;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            appendHex(sb, group(high, low, i));
+        }
+        return sb.toString();
+    }
+
+    private static int group(long high, long low, int index) {
+        long half = index < 4 ? high : low;
+        return (int) (half >>> (48 - (index & 3) * 16)) & 0xFFFF;
+    }
+
+    private static void appendHex(StringBuilder sb, int value) {
+        boolean leading = true;
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            int digit = value >>> shift & 0xF;
+            if (digit != 0 || !leading || shift == 0) {
+                sb.append(HEX[digit]);
+                leading = false;
+            }
+        }
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private IPParser() {
+        // Prevent outside initialization
+    }
+}
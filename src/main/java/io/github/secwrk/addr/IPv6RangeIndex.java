@@ -0,0 +1,175 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.nio.LongBuffer;
+
+/**
+ * {@link IPv6RangeIndex} finds IPv6 ranges by binary search over parallel {@code long} columns,
+ * either heap arrays or views of a memory-mapped file.
+ * <p>
+ * Range bounds are 128-bit values stored as high/low {@code long} pairs. Their sign bit is
+ * flipped as they are read, so plain signed comparison gives unsigned address ordering.
+ * The search narrows down by halves with a conditional select instead of a branch per step,
+ * so its cost depends only on the number of ranges. Ranges are expected to be sorted by start
+ * and non-overlapping.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class IPv6RangeIndex {
+
+    private final LongBuffer startHi;
+    private final LongBuffer startLo;
+    private final LongBuffer endHi;
+    private final LongBuffer endLo;
+
+    private IPv6RangeIndex(LongBuffer startHi, LongBuffer startLo, LongBuffer endHi, LongBuffer endLo) {
+        this.startHi = startHi;
+        this.startLo = startLo;
+        this.endHi = endHi;
+        this.endLo = endLo;
+    }
+
+    /**
+     * Create a new {@link IPv6RangeIndex} from range bounds sorted by start of range.
+     * Arrays are copied.
+     *
+     * @param startHigh High 64 bits of start of ranges
+     * @param startLow  Low 64 bits of start of ranges
+     * @param endHigh   High 64 bits of end of ranges
+     * @param endLow    Low 64 bits of end of ranges
+     * @return {@link IPv6RangeIndex} instance
+     * @throws IllegalArgumentException If arrays have different lengths
+     */
+    public static IPv6RangeIndex from(long[] startHigh, long[] startLow, long[] endHigh, long[] endLow) {
+        int size = startHigh.length;
+        if (startLow.length != size || endHigh.length != size || endLow.length != size) {
+            throw new IllegalArgumentException("Range bound arrays have different lengths");
+        }
+
+        return new IPv6RangeIndex(LongBuffer.wrap(startHigh.clone()), LongBuffer.wrap(startLow.clone()),
+                LongBuffer.wrap(endHigh.clone()), LongBuffer.wrap(endLow.clone()));
+    }
+
+    /**
+     * Create a new {@link IPv6RangeIndex} searching range bounds in place, like views of a
+     * memory-mapped file. Buffers are not copied, ranges are from their positions to their limits.
+     *
+     * @param startHigh High 64 bits of start of ranges
+     * @param startLow  Low 64 bits of start of ranges
+     * @param endHigh   High 64 bits of end of ranges
+     * @param endLow    Low 64 bits of end of ranges
+     * @return {@link IPv6RangeIndex} instance
+     * @throws IllegalArgumentException If buffers have different lengths
+     */
+    public static IPv6RangeIndex from(LongBuffer startHigh, LongBuffer startLow, LongBuffer endHigh, LongBuffer endLow) {
+        int size = startHigh.remaining();
+        if (startLow.remaining() != size || endHigh.remaining() != size || endLow.remaining() != size) {
+            throw new IllegalArgumentException("Range bound buffers have different lengths");
+        }
+        return new IPv6RangeIndex(startHigh.slice(), startLow.slice(), endHigh.slice(), endLow.slice());
+    }
+
+    /**
+     * Number of ranges
+     */
+    public int size() {
+        return startHi.limit();
+    }
+
+    /**
+     * High 64 bits of start of a range
+     */
+    public long startHigh(int index) {
+        return startHi.get(index);
+    }
+
+    /**
+     * Low 64 bits of start of a range
+     */
+    public long startLow(int index) {
+        return startLo.get(index);
+    }
+
+    /**
+     * High 64 bits of end of a range
+     */
+    public long endHigh(int index) {
+        return endHi.get(index);
+    }
+
+    /**
+     * Low 64 bits of end of a range
+     */
+    public long endLow(int index) {
+        return endLo.get(index);
+    }
+
+    /**
+     * Find range containing an address
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return Index of range, or -1 if not found
+     */
+    public int find(long high, long low) {
+        return find(high, low, high, low);
+    }
+
+    /**
+     * Find range containing a whole range of addresses
+     *
+     * @param lowerHigh High 64 bits of first address
+     * @param lowerLow  Low 64 bits of first address
+     * @param upperHigh High 64 bits of last address
+     * @param upperLow  Low 64 bits of last address
+     * @return Index of range, or -1 if not found
+     */
+    public int find(long lowerHigh, long lowerLow, long upperHigh, long upperLow) {
+        int count = startHi.limit();
+        if (count == 0) {
+            return -1;
+        }
+
+        long keyHi = lowerHigh ^ Long.MIN_VALUE;
+        long keyLo = lowerLow ^ Long.MIN_VALUE;
+
+        // Last range starting at or before key is in [base, base + count)
+        int base = 0;
+        while (count > 1) {
+            int half = count >>> 1;
+            int mid = base + half;
+            long hi = startHi.get(mid) ^ Long.MIN_VALUE;
+            boolean startsBefore = hi < keyHi | (hi == keyHi & (startLo.get(mid) ^ Long.MIN_VALUE) <= keyLo);
+            base = startsBefore ? mid : base;
+            count -= half;
+        }
+
+        long hi = startHi.get(base) ^ Long.MIN_VALUE;
+        if (hi > keyHi || (hi == keyHi && (startLo.get(base) ^ Long.MIN_VALUE) > keyLo)) {
+            // Key is before first range
+            return -1;
+        }
+
+        long upperHi = upperHigh ^ Long.MIN_VALUE;
+        long upperLo = upperLow ^ Long.MIN_VALUE;
+        long end = endHi.get(base) ^ Long.MIN_VALUE;
+        if (upperHi < end || (upperHi == end && upperLo <= (endLo.get(base) ^ Long.MIN_VALUE))) {
+            return base;
+        }
+        return -1;
+    }
+}
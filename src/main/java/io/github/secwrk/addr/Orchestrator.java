@@ -0,0 +1,266 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import io.github.secwrk.addr.asn.ASNProcessor;
+import io.github.secwrk.addr.asn.CloudASNFilteredProcessor;
+import io.github.secwrk.addr.city.CityProcessor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link Orchestrator} runs {@link CloudASNFilteredProcessor}, {@link ASNProcessor} and {@link CityProcessor}
+ * in one JVM. All sources are downloaded concurrently and every processor starts as soon as
+ * its own inputs are downloaded, so total time is close to the longest single download and process path.
+ * <p>
+ * Downloads go through a {@link DownloadCache}, large DB-IP archives are fetched as parallel
+ * ranges by {@link RangedDownloader}. After a processor succeeded, the SHA-256 of its inputs and
+ * of each of its outputs are recorded in a stamp file under "stamps" in the download directory.
+ * A processor is skipped only if its stamp matches current inputs and all its outputs are still
+ * the ones it wrote, so a processor which failed after its inputs were downloaded runs again on
+ * the next run. Outputs of {@link CityProcessor} are City.bin, AllCity.txt and every shard it lists.
+ */
+public final class Orchestrator {
+
+    /**
+     * Source URLs of all processors
+     */
+    public record Sources(String ip2asn, String datacenters, String asn, String city, String iso3166, String geoNames) {
+
+        /**
+         * Sources used by processors
+         */
+        public static Sources defaults() {
+            return new Sources(CloudASNFilteredProcessor.ASN_URL, CloudASNFilteredProcessor.DATACENTER_URL,
+                    ASNProcessor.ASN_URL, CityProcessor.CITY_URL, CityProcessor.ISO3166_URL, CityProcessor.GEONAME_URL);
+        }
+
+        /**
+         * Sources served from a single base URL, e.g. a local mirror or stub server.
+         * File names are the same as of {@link #defaults()}.
+         */
+        public static Sources from(String baseUrl) {
+            Sources defaults = defaults();
+            return new Sources(rebase(baseUrl, defaults.ip2asn), rebase(baseUrl, defaults.datacenters),
+                    rebase(baseUrl, defaults.asn), rebase(baseUrl, defaults.city),
+                    rebase(baseUrl, defaults.iso3166), rebase(baseUrl, defaults.geoNames));
+        }
+
+        private static String rebase(String baseUrl, String url) {
+            return baseUrl + url.substring(url.lastIndexOf('/'));
+        }
+    }
+
+    /**
+     * Usage: Orchestrator [base URL]
+     */
+    public static void main(String[] args) throws Exception {
+        Sources sources = args.length > 0 ? Sources.from(args[0]) : Sources.defaults();
+        run(sources, Path.of("downloads"));
+    }
+
+    /**
+     * Download all sources and run all processors
+     *
+     * @param sources   {@link Sources} to download
+     * @param directory Directory to store downloaded files in, download cache is kept in its "cache" directory
+     */
+    public static void run(Sources sources, Path directory) throws Exception {
+        Files.createDirectories(directory);
+        DownloadCache cache = DownloadCache.open(directory.resolve("cache"));
+        Path stamps = Files.createDirectories(directory.resolve("stamps"));
+
+        // Processors block on I/O and CityProcessor runs its own pipeline threads,
+        // so they get their own threads instead of the common pool.
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CompletableFuture<DownloadCache.Result> ip2asn = download(cache, sources.ip2asn(), false);
+            CompletableFuture<DownloadCache.Result> datacenters = download(cache, sources.datacenters(), false);
+            CompletableFuture<DownloadCache.Result> asn = download(cache, sources.asn(), true);
+            CompletableFuture<DownloadCache.Result> city = download(cache, sources.city(), true);
+            CompletableFuture<DownloadCache.Result> iso3166 = download(cache, sources.iso3166(), false);
+            CompletableFuture<DownloadCache.Result> geoNames = download(cache, sources.geoNames(), false);
+
+            CompletableFuture<Void> cloudAsnTask = CompletableFuture.allOf(ip2asn, datacenters)
+                    .thenRunAsync(() -> run("CloudASNFilteredProcessor", stamps, () -> List.of(Path.of("generated", "CloudASN.json")),
+                            List.of(ip2asn.join(), datacenters.join()),
+                            () -> CloudASNFilteredProcessor.process(ip2asn.join().path(), datacenters.join().path())), executor);
+
+            CompletableFuture<Void> asnTask = asn
+                    .thenRunAsync(() -> run("ASNProcessor", stamps, () -> List.of(Path.of("generated", "ASN.csv")),
+                            List.of(asn.join()),
+                            () -> ASNProcessor.process(asn.join().path())), executor);
+
+            // With several processors City file is decompressed to disk and parsed in parallel partitions,
+            // otherwise it is decompressed while it is being parsed and nothing is staged to disk.
+            // Gzip can't be split, so decompressing to disk is a single-threaded pass which parses nothing
+            // and needs disk space for the whole decompressed file. Only with more than 2 processors
+            // parsing in parallel wins back more than that pass costs.
+            CompletableFuture<Void> cityTask = CompletableFuture.allOf(city, iso3166, geoNames)
+                    .thenRunAsync(() -> run("CityProcessor", stamps, Orchestrator::cityOutputs,
+                            List.of(city.join(), iso3166.join(), geoNames.join()), () -> {
+                                int parallelism = Runtime.getRuntime().availableProcessors();
+                                if (parallelism > 2) {
+                                    Path cityPath = directory.resolve("City.csv");
+                                    Downloader.decompressFile(city.join().path(), cityPath);
+                                    try {
+                                        CityProcessor.process(geoNames.join().path(), iso3166.join().path(), cityPath, parallelism);
+                                    } finally {
+                                        Files.deleteIfExists(cityPath);
+                                    }
+                                } else {
+                                    CityProcessor.processCompressed(geoNames.join().path(), iso3166.join().path(), city.join().path());
+                                }
+                            }), executor);
+
+            CompletableFuture.allOf(cloudAsnTask, asnTask, cityTask).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw ex;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CompletableFuture<DownloadCache.Result> download(DownloadCache cache, String url, boolean ranged) {
+        long start = System.nanoTime();
+        return cache.fetchAsync(url, ranged)
+                .whenComplete((result, throwable) -> {
+                    if (throwable == null) {
+                        System.out.println((result.unchanged() ? "Unchanged " : "Downloaded ") + url + " in " + millis(start) + " ms");
+                    }
+                });
+    }
+
+    /**
+     * City.bin, AllCity.txt and every City CSV shard listed in AllCity.txt. Without AllCity.txt
+     * only the files themselves are returned, they are then missing and City output is not up to date.
+     */
+    private static List<Path> cityOutputs() throws IOException {
+        Path generated = Path.of("generated");
+        Path allCity = generated.resolve("AllCity.txt");
+        List<Path> outputs = new ArrayList<>(List.of(generated.resolve("City.bin"), allCity));
+        if (Files.exists(allCity)) {
+            for (String line : Files.readAllLines(allCity, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    outputs.add(generated.resolve(line.trim()));
+                }
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Run a processor unless its outputs are up to date, then stamp outputs with the inputs they were built from
+     *
+     * @param name    Name of processor
+     * @param stamps  Directory of stamp files
+     * @param outputs Lists outputs of processor, a change to any of them after stamping makes processor run again
+     * @param inputs  Downloaded inputs of processor
+     * @param task    Runs processor
+     */
+    private static void run(String name, Path stamps, Outputs outputs, List<DownloadCache.Result> inputs, Task task) {
+        Path stamp = stamps.resolve(name + ".properties");
+        long start = System.nanoTime();
+        try {
+            if (upToDate(stamp, outputs.list(), inputs)) {
+                System.out.println(name + " skipped, output is up to date");
+                return;
+            }
+
+            // Stamp is only valid for the output it was written for
+            Files.deleteIfExists(stamp);
+            task.run();
+            writeStamp(stamp, outputs.list(), inputs);
+        } catch (Exception ex) {
+            throw new IllegalStateException(name + " failed", ex);
+        }
+        System.out.println(name + " finished in " + millis(start) + " ms");
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if all outputs exist, are unchanged since they were stamped,
+     * and were built from the same inputs
+     */
+    private static boolean upToDate(Path stamp, List<Path> outputs, List<DownloadCache.Result> inputs) throws IOException {
+        if (!Files.exists(stamp)) {
+            return false;
+        }
+        for (Path output : outputs) {
+            if (!Files.exists(output)) {
+                return false;
+            }
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(stamp, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties.equals(stampOf(outputs, inputs));
+    }
+
+    private static void writeStamp(Path stamp, List<Path> outputs, List<DownloadCache.Result> inputs) throws IOException {
+        // Stamp is replaced at once, so a crash never leaves half a stamp behind
+        Path temporary = Files.createTempFile(stamp.getParent(), "stamp", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            stampOf(outputs, inputs).store(writer, null);
+        }
+        Files.move(temporary, stamp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Properties stampOf(List<Path> outputs, List<DownloadCache.Result> inputs) throws IOException {
+        Properties properties = new Properties();
+        for (int i = 0; i < inputs.size(); i++) {
+            properties.setProperty("input." + i, inputs.get(i).sha256());
+        }
+        for (Path output : outputs) {
+            properties.setProperty("output." + output.getFileName(), DownloadCache.sha256(output));
+        }
+        return properties;
+    }
+
+    private static long millis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Outputs {
+        List<Path> list() throws IOException;
+    }
+
+    private Orchestrator() {
+        // Prevent outside initialization
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * {@link PipelinedInflater} decompresses a gzip stream on dedicated threads, so reading compressed
+ * bytes, inflating them and consuming decompressed bytes overlap.
+ * <p>
+ * A reader thread fills direct {@link ByteBuffer}s from the source stream and an inflater thread
+ * inflates them with {@link Inflater} into direct output buffers. Stages are joined by rings of
+ * reusable buffers, so memory is bounded and no buffer is allocated after start.
+ * Concatenated gzip members are decompressed one after another, as gzip(1) does, and CRC32 and
+ * size of every member are verified.
+ * <p>
+ * Decompressed data is read either as {@link InputStream}, or without copying through {@link #next()}.
+ * Instances are meant to be used by a single consumer thread.
+ */
+public final class PipelinedInflater extends InputStream {
+
+    private static final int BUFFER_SIZE = 262_144;
+    private static final int RING_SIZE = 8;
+
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /**
+     * Marks end of stream in a queue
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final InputStream source;
+
+    private final BlockingQueue<ByteBuffer> freeInput = new ArrayBlockingQueue<>(RING_SIZE);
+    private final BlockingQueue<ByteBuffer> filledInput = new ArrayBlockingQueue<>(RING_SIZE + 1);
+    private final BlockingQueue<ByteBuffer> freeOutput = new ArrayBlockingQueue<>(RING_SIZE);
+    private final BlockingQueue<ByteBuffer> filledOutput = new ArrayBlockingQueue<>(RING_SIZE + 1);
+
+    private final Thread readerThread;
+    private final Thread inflaterThread;
+
+    private volatile Throwable failure;
+
+    /**
+     * Output buffer currently held by consumer
+     */
+    private ByteBuffer current;
+    private boolean finished;
+
+    private PipelinedInflater(InputStream source) {
+        this.source = source;
+        for (int i = 0; i < RING_SIZE; i++) {
+            freeInput.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+            freeOutput.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+
+        readerThread = new Thread(this::readSource, "gzip-reader");
+        inflaterThread = new Thread(this::inflate, "gzip-inflater");
+        readerThread.setDaemon(true);
+        inflaterThread.setDaemon(true);
+    }
+
+    /**
+     * Start decompressing a gzip stream
+     *
+     * @param source Gzip compressed stream, closed when this instance is closed
+     * @return {@link PipelinedInflater} instance
+     */
+    public static PipelinedInflater start(InputStream source) {
+        PipelinedInflater inflater = new PipelinedInflater(source);
+        inflater.readerThread.start();
+        inflater.inflaterThread.start();
+        return inflater;
+    }
+
+    /**
+     * Next buffer of decompressed data. Returned buffer is valid until next call of
+     * this method or {@link #read()}, and must not be modified.
+     *
+     * @return {@link ByteBuffer} holding decompressed data, or {@code null} at end of stream
+     * @throws IOException If source cannot be read or is not valid gzip
+     */
+    public ByteBuffer next() throws IOException {
+        if (current != null) {
+            freeOutput.add(current.clear());
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = filledOutput.take();
+            if (buffer == END) {
+                finished = true;
+                checkFailure();
+                return null;
+            }
+            current = buffer;
+            return buffer;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (next() == null) {
+                return -1;
+            }
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || !current.hasRemaining()) {
+            if (next() == null) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, current.remaining());
+        current.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readerThread.interrupt();
+        inflaterThread.interrupt();
+        source.close();
+    }
+
+    /**
+     * Reader thread: fill input buffers from source
+     */
+    private void readSource() {
+        try (ReadableByteChannel channel = Channels.newChannel(source)) {
+            while (true) {
+                ByteBuffer buffer = freeInput.take();
+                // Fill buffer as far as possible, inflating tiny buffers is slow
+                int count;
+                do {
+                    count = channel.read(buffer);
+                } while (count != -1 && buffer.hasRemaining());
+                if (buffer.position() > 0) {
+                    filledInput.put(buffer.flip());
+                }
+                if (count == -1) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            return;
+        } catch (Throwable ex) {
+            fail(ex);
+        }
+        filledInput.add(END);
+    }
+
+    /**
+     * Inflater thread: inflate members until input ends
+     */
+    private void inflate() {
+        Inflater inflater = new Inflater(true);
+        InputCursor input = new InputCursor();
+        CRC32 crc32 = new CRC32();
+        ByteBuffer output = null;
+
+        try {
+            boolean first = true;
+            int id;
+            while ((id = input.readShort()) != -1) {
+                if (id != GZIP_MAGIC) {
+                    throw new ZipException(first ? "Not in GZIP format" : "Garbage after GZIP member");
+                }
+                readHeader(input);
+                first = false;
+
+                inflater.reset();
+                crc32.reset();
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        ByteBuffer buffer = input.remaining();
+                        if (buffer == null) {
+                            throw new EOFException("Unexpected end of GZIP stream");
+                        }
+                        inflater.setInput(buffer);
+                    }
+                    if (output == null) {
+                        output = freeOutput.take();
+                    }
+
+                    int start = output.position();
+                    int count = inflater.inflate(output);
+                    if (count > 0) {
+                        crc32.update(output.duplicate().position(start).limit(start + count));
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("Preset dictionary is not supported");
+                    }
+                    if (!output.hasRemaining()) {
+                        filledOutput.put(output.flip());
+                        output = null;
+                    }
+                }
+
+                // Inflater leaves unused bytes in input buffer, trailer starts there
+                long crc = input.readInt();
+                long size = input.readInt();
+                if (crc != crc32.getValue()) {
+                    throw new ZipException("Corrupt GZIP trailer: CRC32 mismatch");
+                }
+                if (size != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+                    throw new ZipException("Corrupt GZIP trailer: size mismatch");
+                }
+            }
+            if (first) {
+                throw new EOFException("Empty GZIP stream");
+            }
+
+            if (output != null && output.position() > 0) {
+                filledOutput.put(output.flip());
+            }
+        } catch (InterruptedException ex) {
+            return;
+        } catch (Throwable ex) {
+            // A reader failure ends input early, so it is the cause of what the inflater sees
+            fail(ex);
+        } finally {
+            inflater.end();
+        }
+        filledOutput.add(END);
+    }
+
+    private static void readHeader(InputCursor input) throws IOException, InterruptedException {
+        int method = input.readByte();
+        int flags = input.readByte();
+        if (method != 8) {
+            throw new ZipException("Unsupported compression method: " + method);
+        }
+        // MTIME, XFL, OS
+        input.skip(6);
+        if ((flags & FEXTRA) != 0) {
+            input.skip(input.readShort());
+        }
+        if ((flags & FNAME) != 0) {
+            input.skipString();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            input.skipString();
+        }
+        if ((flags & FHCRC) != 0) {
+            input.skip(2);
+        }
+    }
+
+    /**
+     * Record a failure of a pipeline thread. First failure is kept, later ones are added to it as suppressed.
+     */
+    private synchronized void fail(Throwable throwable) {
+        if (failure == null) {
+            failure = throwable;
+        } else if (failure != throwable) {
+            failure.addSuppressed(throwable);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable throwable = failure;
+        if (throwable instanceof IOException ex) {
+            throw ex;
+        }
+        if (throwable != null) {
+            throw new IOException("Caught error while processing archive", throwable);
+        }
+    }
+
+    /**
+     * Sequential view over filled input buffers, used by inflater thread
+     */
+    private final class InputCursor {
+
+        private ByteBuffer buffer;
+        private boolean ended;
+
+        /**
+         * Current input buffer with unread bytes, or {@code null} at end of input
+         */
+        ByteBuffer remaining() throws InterruptedException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (buffer != null) {
+                    freeInput.add(buffer.clear());
+                    buffer = null;
+                }
+                if (ended) {
+                    return null;
+                }
+                ByteBuffer next = filledInput.take();
+                if (next == END) {
+                    ended = true;
+                    return null;
+                }
+                buffer = next;
+            }
+            return buffer;
+        }
+
+        int readByte() throws IOException, InterruptedException {
+            ByteBuffer buffer = remaining();
+            if (buffer == null) {
+                throw new EOFException("Unexpected end of GZIP stream");
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        /**
+         * Little-endian unsigned short, or -1 if input ended before first byte
+         */
+        int readShort() throws IOException, InterruptedException {
+            if (remaining() == null) {
+                return -1;
+            }
+            return readByte() | readByte() << 8;
+        }
+
+        long readInt() throws IOException, InterruptedException {
+            return (readByte() | readByte() << 8 | readByte() << 16 | (long) readByte() << 24) & 0xFFFFFFFFL;
+        }
+
+        void skip(int count) throws IOException, InterruptedException {
+            for (int i = 0; i < count; i++) {
+                readByte();
+            }
+        }
+
+        void skipString() throws IOException, InterruptedException {
+            while (readByte() != 0) {
+                // Skip zero-terminated string
+            }
+        }
+    }
+}
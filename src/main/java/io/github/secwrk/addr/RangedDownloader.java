@@ -0,0 +1,396 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * {@link RangedDownloader} downloads a large file as HTTP Range requests fetched in parallel,
+ * written with positional writes into a preallocated file.
+ * <p>
+ * Completed chunks are recorded with their CRC32 in a journal next to the file, so an
+ * interrupted download resumes with the missing chunks only. The CRC32 is computed from the
+ * received bytes, so it only detects chunks which were damaged or lost on local disk before
+ * a resume, those are downloaded again. It does not verify the file against its source. Sources
+ * publish no checksum, so apart from the final size check, the CRC32 trailer of gzip archives,
+ * checked when they are decompressed, is the only integrity check.
+ * <p>
+ * Chunks are requested with the strong ETag, or else the Last-Modified date, as If-Range
+ * validator. A server answering a range with the whole file means the source changed,
+ * then the download restarts from scratch. Connection errors and transient statuses
+ * (429, 500, 502, 503, 504) are retried with backoff. If the server does not support ranges,
+ * the file is downloaded as a single stream.
+ */
+public final class RangedDownloader {
+
+    /**
+     * Default size of a single Range request
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * Default number of parallel connections
+     */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    private static final int BUFFER_SIZE = 65_536;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int MAX_RESTARTS = 2;
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final String url;
+    private final Path path;
+    private final Path journalPath;
+    private final long chunkSize;
+
+    private long size;
+    private String validator;
+    private final Properties journal = new Properties();
+
+    private RangedDownloader(String url, Path path, long chunkSize) {
+        this.url = url;
+        this.path = path;
+        this.journalPath = path.resolveSibling(path.getFileName() + ".journal");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Download a file with {@link #DEFAULT_CONNECTIONS} connections of {@link #DEFAULT_CHUNK_SIZE} chunks
+     *
+     * @param url  URL of file
+     * @param path Path to store file at
+     */
+    public static void download(String url, Path path) throws IOException, InterruptedException {
+        download(url, path, DEFAULT_CONNECTIONS, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Download a file
+     *
+     * @param url         URL of file
+     * @param path        Path to store file at
+     * @param connections Number of parallel connections
+     * @param chunkSize   Size of a single Range request
+     * @throws IllegalStateException If server responds unexpectedly, source keeps changing during download
+     *                               or downloaded file does not match expected size
+     */
+    public static void download(String url, Path path, int connections, long chunkSize)
+            throws IOException, InterruptedException {
+        for (int restart = 0; ; restart++) {
+            RangedDownloader downloader = new RangedDownloader(url, path, chunkSize);
+            try {
+                if (downloader.probe()) {
+                    downloader.downloadChunks(connections);
+                }
+                break;
+            } catch (SourceChangedException ex) {
+                if (restart == MAX_RESTARTS) {
+                    throw ex;
+                }
+                System.out.println("Restarting download of " + url + ": " + ex.getMessage());
+                // Chunks of previous version must not be reused
+                Files.deleteIfExists(downloader.journalPath);
+            }
+        }
+    }
+
+    /**
+     * Ask for first byte of file to learn its size and whether ranges are supported.
+     * If they are not supported, the whole file is stored right away.
+     *
+     * @return {@link Boolean#TRUE} if chunks need to be downloaded
+     */
+    private boolean probe() throws IOException, InterruptedException {
+        HttpResponse<Path> httpResponse = Downloader.HTTP_CLIENT.send(HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(url))
+                .header("Range", "bytes=0-0")
+                .build(), responseInfo -> responseInfo.statusCode() == 200
+                ? HttpResponse.BodySubscribers.ofFile(path)
+                : HttpResponse.BodySubscribers.replacing(path));
+
+        if (httpResponse.statusCode() == 200) {
+            Files.deleteIfExists(journalPath);
+            return false;
+        }
+        if (httpResponse.statusCode() != 206) {
+            throw new IllegalStateException("Unexpected status " + httpResponse.statusCode() + " for " + url);
+        }
+
+        // A weak ETag can not be used with If-Range, servers answer it with the whole file
+        String etag = httpResponse.headers().firstValue("ETag").orElse(null);
+        validator = etag != null && !etag.startsWith("W/")
+                ? etag
+                : httpResponse.headers().firstValue("Last-Modified").orElse(null);
+
+        // Content-Range: bytes 0-0/<size>
+        String contentRange = httpResponse.headers().firstValue("Content-Range")
+                .orElseThrow(() -> new IllegalStateException("Missing Content-Range for " + url));
+        size = Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        return true;
+    }
+
+    private void downloadChunks(int connections) throws IOException, InterruptedException {
+        int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            List<Integer> pending = resume(channel, chunks);
+            if (pending.size() < chunks) {
+                System.out.println("Resuming " + url + ", " + (chunks - pending.size()) + "/" + chunks + " chunks done");
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(connections, pending.size())));
+            try {
+                List<Future<?>> futures = new ArrayList<>(pending.size());
+                for (int chunk : pending) {
+                    futures.add(executor.submit(() -> {
+                        downloadChunk(channel, chunk);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                if (ex.getCause() instanceof SourceChangedException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException("Caught error while downloading " + url, ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (channel.size() != size) {
+                throw new IllegalStateException("Size mismatch for " + url + ": expected " + size + ", got " + channel.size());
+            }
+        }
+
+        Files.delete(journalPath);
+    }
+
+    /**
+     * Load journal of a previous attempt and verify chunks it lists as done.
+     *
+     * @return Chunks which still need to be downloaded
+     */
+    private List<Integer> resume(FileChannel channel, int chunks) throws IOException {
+        if (Files.exists(journalPath)) {
+            try (Reader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+                journal.load(reader);
+            }
+        }
+
+        boolean sameSource = url.equals(journal.getProperty("url"))
+                && String.valueOf(size).equals(journal.getProperty("size"))
+                && String.valueOf(chunkSize).equals(journal.getProperty("chunkSize"))
+                && validator != null && validator.equals(journal.getProperty("validator"));
+
+        if (!sameSource) {
+            journal.clear();
+            journal.setProperty("url", url);
+            journal.setProperty("size", String.valueOf(size));
+            journal.setProperty("chunkSize", String.valueOf(chunkSize));
+            if (validator != null) {
+                journal.setProperty("validator", validator);
+            }
+            channel.truncate(0);
+            // Preallocate, so chunks can be written at their position in any order
+            if (size > 0) {
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+            writeJournal();
+        }
+
+        List<Integer> pending = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            String crc = journal.getProperty("chunk." + chunk);
+            if (crc == null || Long.parseLong(crc, 16) != crc32(channel, chunk, buffer)) {
+                pending.add(chunk);
+            }
+        }
+        return pending;
+    }
+
+    private void downloadChunk(FileChannel channel, int chunk) throws IOException, InterruptedException {
+        long start = chunk * chunkSize;
+        long end = Math.min(start + chunkSize, size) - 1;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long crc = transferChunk(channel, start, end);
+                complete(channel, chunk, crc);
+                return;
+            } catch (IOException ex) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw ex;
+                }
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << (attempt - 1));
+                if (ex instanceof TransientStatusException transientStatus) {
+                    delay = Math.max(delay, Math.min(MAX_RETRY_DELAY_MILLIS, transientStatus.retryAfterMillis));
+                }
+                System.out.println("Retrying chunk " + chunk + " of " + url + " in " + delay + " ms: " + ex.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private long transferChunk(FileChannel channel, long start, long end) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .GET()
+                .uri(URI.create(url))
+                .header("Range", "bytes=" + start + "-" + end);
+        if (validator != null) {
+            // Server sends whole file instead of a range if source changed
+            request.header("If-Range", validator);
+        }
+
+        HttpResponse<InputStream> httpResponse = Downloader.HTTP_CLIENT.send(request.build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream inputStream = httpResponse.body()) {
+            int status = httpResponse.statusCode();
+            if (status == 200) {
+                // If-Range did not match, or server ignored Range
+                throw new SourceChangedException("Whole file sent instead of a range for " + url);
+            }
+            if (status == 429 || status == 500 || status == 502 || status == 503 || status == 504) {
+                throw new TransientStatusException("Status " + status + " for " + url,
+                        retryAfterMillis(httpResponse.headers().firstValue("Retry-After").orElse(null)));
+            }
+            if (status != 206) {
+                throw new IllegalStateException("Unexpected status " + status + " for " + url);
+            }
+
+            CRC32 crc32 = new CRC32();
+            byte[] data = new byte[BUFFER_SIZE];
+            long position = start;
+            int count;
+            while ((count = inputStream.read(data)) != -1) {
+                if (position + count > end + 1) {
+                    throw new IOException("Server sent more bytes than requested for " + url);
+                }
+                crc32.update(data, 0, count);
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+
+            if (position != end + 1) {
+                throw new IOException("Connection closed after " + (position - start) + " of " + (end - start + 1) + " bytes");
+            }
+            return crc32.getValue();
+        }
+    }
+
+    private synchronized void complete(FileChannel channel, int chunk, long crc) throws IOException {
+        // Chunk must be on disk before journal says it is done
+        channel.force(false);
+        journal.setProperty("chunk." + chunk, Long.toHexString(crc));
+        writeJournal();
+    }
+
+    private void writeJournal() throws IOException {
+        Path temporary = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            journal.store(writer, null);
+        }
+        Files.move(temporary, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long crc32(FileChannel channel, int chunk, ByteBuffer buffer) throws IOException {
+        long position = chunk * chunkSize;
+        long end = Math.min(position + chunkSize, size);
+        CRC32 crc32 = new CRC32();
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int count = channel.read(buffer, position);
+            if (count <= 0) {
+                break;
+            }
+            crc32.update(buffer.flip());
+            position += count;
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Retry-After in seconds as milliseconds, 0 if missing or given as date
+     */
+    private static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Server answered with a status which is worth retrying
+     */
+    private static final class TransientStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        private TransientStatusException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /**
+     * Source changed since download started, chunks downloaded so far can not be used
+     */
+    private static final class SourceChangedException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        private SourceChangedException(String message) {
+            super(message);
+        }
+    }
+}
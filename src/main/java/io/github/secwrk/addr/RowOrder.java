@@ -0,0 +1,66 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr;
+
+import java.util.Arrays;
+
+/**
+ * {@link RowOrder} sorts rows of column oriented tables by index, so columns can be
+ * permuted once instead of sorting row objects.
+ * <p>
+ * Used by {@link io.github.secwrk.addr.asn.ASNTable} and {@link io.github.secwrk.addr.city.CityTable} builders.
+ */
+public final class RowOrder {
+
+    private RowOrder() {
+        // Prevent outside initialization
+    }
+
+    /**
+     * Order of rows sorted by a {@link RowComparator}
+     *
+     * @param count      Number of rows
+     * @param comparator Compares two rows by index
+     * @return Row indexes in sorted order
+     */
+    public static int[] sorted(int count, RowComparator comparator) {
+        int[] order = new int[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            if (i > 0 && comparator.compare(i - 1, i) > 0) {
+                sorted = false;
+            }
+        }
+
+        // Sources are usually sorted already, only pay for sorting if they are not
+        if (!sorted) {
+            order = Arrays.stream(order).boxed()
+                    .sorted(comparator::compare)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+        return order;
+    }
+
+    /**
+     * Compares two rows of a table by index
+     */
+    @FunctionalInterface
+    public interface RowComparator {
+        int compare(int a, int b);
+    }
+}
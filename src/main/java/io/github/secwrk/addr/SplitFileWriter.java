@@ -15,49 +15,295 @@
  */
 package io.github.secwrk.addr;
 
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public final class SplitFileWriter extends FileWriter {
+/**
+ * {@link SplitFileWriter} writes rows into numbered shard files "fileName-1", "fileName-2", ...
+ * <p>
+ * A shard is rotated on whole rows, once it holds {@code maxRows} rows or the next row would
+ * make it larger than {@code maxBytes}, or when the caller starts a new shard with
+ * {@link #startShard()}. Rows are collected in large direct buffers, and full buffers are
+ * written by background threads with positional {@link FileChannel} writes, so encoding the
+ * next rows overlaps writing previous ones, also across shards. A shard file is closed as soon
+ * as its last buffer is written, so only shards with pending writes are open. Instances are
+ * meant to be used by a single producer thread.
+ */
+public final class SplitFileWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_COUNT = 4;
 
-    private final int maxWrites;
     private final String fileName;
-    private int filesCount = 0;
-    private int currentWriteIndex = 0;
+    private final int maxRows;
+    private final long maxBytes;
+
+    private final ExecutorService flushExecutor;
+    private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final List<Future<?>> pendingFlushes = new ArrayList<>();
+    private final Set<Shard> openShards = ConcurrentHashMap.newKeySet();
 
-    private FileWriter writer;
+    private int shardCount;
+    private Shard shard;
+    private ByteBuffer buffer;
+    private long position;
+    private int rows;
+    private byte[] scratch = new byte[1024];
+
+    /**
+     * Create a new {@link SplitFileWriter} which rotates on row count only
+     *
+     * @param fileName Base name of shard files
+     * @param maxRows  Maximum number of rows in a shard
+     */
+    public SplitFileWriter(String fileName, int maxRows) throws IOException {
+        this(fileName, maxRows, Long.MAX_VALUE);
+    }
 
-    public SplitFileWriter(String fileName, int maxWrites) throws IOException {
-        super("DummyEmptyFile.empty");
+    /**
+     * Create a new {@link SplitFileWriter}
+     *
+     * @param fileName Base name of shard files
+     * @param maxRows  Maximum number of rows in a shard
+     * @param maxBytes Maximum size of a shard in bytes, a single larger row still gets its own shard
+     */
+    public SplitFileWriter(String fileName, int maxRows, long maxBytes) throws IOException {
+        if (maxRows <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxRows and maxBytes must be positive");
+        }
         this.fileName = fileName;
-        this.maxWrites = maxWrites;
-        this.writer = newWriter();
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        flushExecutor = Executors.newFixedThreadPool(BUFFER_COUNT - 1, runnable -> {
+            Thread thread = new Thread(runnable, "shard-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        buffer = freeBuffers.remove();
+        newShard();
     }
 
-    @Override
-    public void write(String str) throws IOException {
-        writer.write(str);
-        if (currentWriteIndex == maxWrites) {
-            currentWriteIndex = 0;
-            writer.close();
-            writer = newWriter();
-        } else {
-            currentWriteIndex++;
+    /**
+     * Write a row
+     *
+     * @param row    Bytes of row, including line separator
+     * @param offset Offset of row in {@code row}
+     * @param length Length of row
+     */
+    public void writeRow(byte[] row, int offset, int length) throws IOException {
+        if (rows == maxRows || (rows > 0 && position + buffer.position() + length > maxBytes)) {
+            flush();
+            newShard();
         }
+
+        if (length > buffer.remaining()) {
+            flush();
+            if (length > buffer.capacity()) {
+                // Caller may reuse row once this returns, so flush thread gets its own copy
+                submit(ByteBuffer.wrap(Arrays.copyOfRange(row, offset, offset + length)), null);
+                rows++;
+                return;
+            }
+        }
+        buffer.put(row, offset, length);
+        rows++;
     }
 
-    private FileWriter newWriter() throws IOException {
-        filesCount++;
-        return new FileWriter(fileName + "-" + filesCount);
+    /**
+     * Start a new shard with the next row, unless current shard is still empty
+     */
+    public void startShard() throws IOException {
+        if (rows > 0) {
+            flush();
+            newShard();
+        }
     }
 
+    /**
+     * Write a row
+     *
+     * @param row Row, including line separator
+     */
+    public void writeRow(CharSequence row) throws IOException {
+        int length = 0;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (c >= 0x80) {
+                // Not ASCII, let String encode it
+                byte[] bytes = row.toString().getBytes(StandardCharsets.UTF_8);
+                writeRow(bytes, 0, bytes.length);
+                return;
+            }
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length++] = (byte) c;
+        }
+        writeRow(scratch, 0, length);
+    }
+
+    /**
+     * Number of shard files written
+     */
     public int filesCount() {
-        return filesCount;
+        return shardCount;
+    }
+
+    /**
+     * Hand current buffer to flush threads and take a free one
+     */
+    private void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        ByteBuffer full = buffer.flip();
+        submit(full, freeBuffers);
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+    }
+
+    private void submit(ByteBuffer data, BlockingQueue<ByteBuffer> recycle) throws IOException {
+        checkFlushes(false);
+
+        Shard target = shard;
+        long start = position;
+        position += data.remaining();
+        target.retain();
+        pendingFlushes.add(flushExecutor.submit(() -> {
+            long offset = start;
+            try {
+                while (data.hasRemaining()) {
+                    offset += target.channel.write(data, offset);
+                }
+            } finally {
+                if (recycle != null) {
+                    recycle.add(data.clear());
+                }
+                target.release();
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Surface failures of finished flushes, optionally wait for all of them
+     */
+    private void checkFlushes(boolean wait) throws IOException {
+        Iterator<Future<?>> iterator = pendingFlushes.iterator();
+        while (iterator.hasNext()) {
+            Future<?> future = iterator.next();
+            if (!wait && !future.isDone()) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                throw new IOException("Caught error while writing " + fileName, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing " + fileName);
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Start next shard file, previous one is closed once its pending writes are done
+     */
+    private void newShard() throws IOException {
+        Shard previous = shard;
+        shard = null;
+        if (previous != null) {
+            previous.release();
+        }
+        shard = new Shard(FileChannel.open(Path.of(fileName + "-" + (shardCount + 1)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        shardCount++;
+        position = 0;
+        rows = 0;
     }
 
     @Override
     public void close() throws IOException {
-        writer.close();
-        super.close();
+        try {
+            flush();
+            checkFlushes(true);
+            Shard last = shard;
+            shard = null;
+            if (last != null) {
+                last.release();
+            }
+        } finally {
+            flushExecutor.shutdownNow();
+            // Shards left open by a failure, like writes which never ran
+            IOException failure = null;
+            for (Shard open : openShards) {
+                try {
+                    open.channel.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            openShards.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Shard file with number of references: one of the producer while it writes to the shard,
+     * and one per pending write. Last reference closes the file.
+     */
+    private final class Shard {
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Shard(FileChannel channel) {
+            this.channel = channel;
+            openShards.add(this);
+        }
+
+        private void retain() {
+            references.incrementAndGet();
+        }
+
+        private void release() throws IOException {
+            if (references.decrementAndGet() == 0) {
+                openShards.remove(this);
+                channel.close();
+            }
+        }
     }
 }
@@ -15,13 +15,16 @@
  */
 package io.github.secwrk.addr.asn;
 
+import io.github.secwrk.addr.Delta;
 import io.github.secwrk.addr.Downloader;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
+import java.util.List;
 
 /**
  * {@link ASNProcessor} fetches DB-IP Lite ASN file and converts, decompresses it,
@@ -32,6 +35,8 @@ public final class ASNProcessor {
     private static final String YEAR;
     private static final String MONTH;
 
+    public static final String ASN_URL;
+
     static {
         ZoneId z = ZoneId.of("UTC");
         ZonedDateTime zdt = ZonedDateTime.now(z);
@@ -42,10 +47,45 @@ public final class ASNProcessor {
             MONTH = month;
         }
         YEAR = String.valueOf(zdt.get(ChronoField.YEAR));
+        ASN_URL = "https://download.db-ip.com/free/dbip-asn-lite-" + YEAR + "-" + MONTH + ".csv.gz";
     }
 
     public static void main(String[] args) throws Exception {
-        Path cityPath = Path.of("generated" + File.separator + "ASN.csv");
-        Downloader.downloadCompressedFile("https://download.db-ip.com/free/dbip-asn-lite-" + YEAR + "-" + MONTH + ".csv.gz", cityPath);
+        Path outputPath = outputPath();
+        Downloader.downloadCompressedFile(ASN_URL, outputPath);
+        publish(outputPath);
+    }
+
+    /**
+     * Process already downloaded file
+     *
+     * @param asnPath Path of gzip compressed DB-IP Lite ASN file
+     */
+    public static void process(Path asnPath) throws IOException {
+        Path outputPath = outputPath();
+        Downloader.decompressFile(asnPath, outputPath);
+        publish(outputPath);
+    }
+
+    private static Path outputPath() throws IOException {
+        if (Delta.isIncremental()) {
+            return Delta.stagingDirectory().resolve("ASN.csv");
+        }
+        return Path.of("generated" + File.separator + "ASN.csv");
+    }
+
+    /**
+     * In incremental mode, write ASN.delta.csv and replace ASN.csv only if it changed
+     */
+    private static void publish(Path outputPath) throws IOException {
+        if (!Delta.isIncremental()) {
+            return;
+        }
+
+        Path asnPath = Path.of("generated" + File.separator + "ASN.csv");
+        Delta.Stats stats = Delta.write(List.of(asnPath), List.of(outputPath),
+                Path.of("generated" + File.separator + "ASN.delta.csv"));
+        boolean rewritten = Delta.replaceIfChanged(outputPath, asnPath);
+        System.out.println("ASN delta: " + stats + (rewritten ? "" : ", ASN.csv unchanged"));
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.asn;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.format.IPAddressRange;
+import inet.ipaddr.ipv4.IPv4Address;
+import inet.ipaddr.ipv6.IPv6Address;
+import io.github.secwrk.addr.IPv6RangeIndex;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * {@link ASNRangeIndex} is a read-only index of {@link ASNEntry} ranges which answers
+ * ASN lookups by binary search over sorted primitive arrays.
+ * <p>
+ * IPv4 bounds are stored as {@code int} with their sign bit flipped, so plain signed comparison
+ * gives unsigned address ordering. IPv6 bounds are searched by an {@link IPv6RangeIndex}.
+ * Ranges are expected to be non-overlapping, which holds for ip2asn and DB-IP data.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class ASNRangeIndex {
+
+    private final int[] v4Start;
+    private final int[] v4End;
+    private final long[] v4Asn;
+
+    private final IPv6RangeIndex v6Index;
+    private final long[] v6Asn;
+
+    private ASNRangeIndex(int[] v4Start, int[] v4End, long[] v4Asn, IPv6RangeIndex v6Index, long[] v6Asn) {
+        this.v4Start = v4Start;
+        this.v4End = v4End;
+        this.v4Asn = v4Asn;
+        this.v6Index = v6Index;
+        this.v6Asn = v6Asn;
+    }
+
+    /**
+     * Build a new {@link ASNRangeIndex} from {@link ASNEntry} instances.
+     * Entries without an IP address range are ignored.
+     *
+     * @param entries {@link Collection} of {@link ASNEntry}
+     * @return {@link ASNRangeIndex} instance
+     */
+    public static ASNRangeIndex from(Collection<ASNEntry> entries) {
+        ASNEntry[] v4 = entries.stream()
+                .filter(entry -> entry.ipAddressRange() != null && entry.ipAddressRange().getLower().isIPv4())
+                .sorted(Comparator.comparingLong(entry -> entry.ipAddressRange().getLower().toIPv4().longValue()))
+                .toArray(ASNEntry[]::new);
+
+        int[] v4Start = new int[v4.length];
+        int[] v4End = new int[v4.length];
+        long[] v4Asn = new long[v4.length];
+        for (int i = 0; i < v4.length; i++) {
+            IPAddressRange range = v4[i].ipAddressRange();
+            v4Start[i] = flip(range.getLower().toIPv4().intValue());
+            v4End[i] = flip(range.getUpper().toIPv4().intValue());
+            v4Asn[i] = v4[i].asn();
+        }
+
+        ASNEntry[] v6 = entries.stream()
+                .filter(entry -> entry.ipAddressRange() != null && entry.ipAddressRange().getLower().isIPv6())
+                .sorted(Comparator.<ASNEntry>comparingLong(entry -> flip(high(entry.ipAddressRange().getLower().toIPv6())))
+                        .thenComparingLong(entry -> flip(low(entry.ipAddressRange().getLower().toIPv6()))))
+                .toArray(ASNEntry[]::new);
+
+        long[] v6StartHi = new long[v6.length];
+        long[] v6StartLo = new long[v6.length];
+        long[] v6EndHi = new long[v6.length];
+        long[] v6EndLo = new long[v6.length];
+        long[] v6Asn = new long[v6.length];
+        for (int i = 0; i < v6.length; i++) {
+            IPv6Address lower = v6[i].ipAddressRange().getLower().toIPv6();
+            IPv6Address upper = v6[i].ipAddressRange().getUpper().toIPv6();
+            v6StartHi[i] = high(lower);
+            v6StartLo[i] = low(lower);
+            v6EndHi[i] = high(upper);
+            v6EndLo[i] = low(upper);
+            v6Asn[i] = v6[i].asn();
+        }
+
+        return new ASNRangeIndex(v4Start, v4End, v4Asn,
+                IPv6RangeIndex.from(v6StartHi, v6StartLo, v6EndHi, v6EndLo), v6Asn);
+    }
+
+    /**
+     * Build a new {@link ASNRangeIndex} from an {@link ASNTable}
+     *
+     * @param table {@link ASNTable} instance
+     * @return {@link ASNRangeIndex} instance
+     */
+    public static ASNRangeIndex from(ASNTable table) {
+        int v4Count = table.ipv4Count();
+        int v6Count = table.size() - v4Count;
+
+        int[] v4Start = new int[v4Count];
+        int[] v4End = new int[v4Count];
+        long[] v4Asn = new long[v4Count];
+        for (int i = 0; i < v4Count; i++) {
+            v4Start[i] = flip(table.ipv4Start(i));
+            v4End[i] = flip(table.ipv4End(i));
+            v4Asn[i] = table.asn(i);
+        }
+
+        long[] v6StartHi = new long[v6Count];
+        long[] v6StartLo = new long[v6Count];
+        long[] v6EndHi = new long[v6Count];
+        long[] v6EndLo = new long[v6Count];
+        long[] v6Asn = new long[v6Count];
+        for (int i = 0; i < v6Count; i++) {
+            int row = v4Count + i;
+            v6StartHi[i] = table.ipv6StartHigh(row);
+            v6StartLo[i] = table.ipv6StartLow(row);
+            v6EndHi[i] = table.ipv6EndHigh(row);
+            v6EndLo[i] = table.ipv6EndLow(row);
+            v6Asn[i] = table.asn(row);
+        }
+
+        return new ASNRangeIndex(v4Start, v4End, v4Asn,
+                IPv6RangeIndex.from(v6StartHi, v6StartLo, v6EndHi, v6EndLo), v6Asn);
+    }
+
+    /**
+     * Lookup ASN for an IP address. If the address is a subnet (e.g. a CIDR block),
+     * the whole subnet must be inside a single range.
+     *
+     * @param address IP address to search for
+     * @return Returns ASN for IP Address. Returns -1 if not found.
+     */
+    public long asn(IPAddress address) {
+        if (address.isIPv4()) {
+            IPv4Address ipv4 = address.toIPv4();
+            return asn(ipv4.intValue(), ipv4.upperIntValue());
+        } else if (address.isIPv6()) {
+            IPv6Address ipv6 = address.toIPv6();
+            return asn(high(ipv6), low(ipv6), upperHigh(ipv6), upperLow(ipv6));
+        }
+        return -1;
+    }
+
+    /**
+     * Lookup ASN for an IPv4 range given as unsigned {@code int} values.
+     *
+     * @return Returns ASN for range. Returns -1 if not found.
+     */
+    public long asn(int lower, int upper) {
+        int position = find(lower, upper);
+        return position < 0 ? -1 : v4Asn[position];
+    }
+
+    /**
+     * Lookup ASN for an IPv6 range given as unsigned high/low {@code long} pairs.
+     *
+     * @return Returns ASN for range. Returns -1 if not found.
+     */
+    public long asn(long lowerHigh, long lowerLow, long upperHigh, long upperLow) {
+        int position = find(lowerHigh, lowerLow, upperHigh, upperLow);
+        return position < 0 ? -1 : v6Asn[position - v4Start.length];
+    }
+
+    /**
+     * Find position of the range containing an IPv4 range given as unsigned {@code int} values.
+     * Positions are ordered by address, IPv4 ranges first, so for an index built by
+     * {@link #from(ASNTable)} the position is the {@link ASNTable} row.
+     *
+     * @return Position of range, or -1 if not found
+     */
+    public int find(int lower, int upper) {
+        int lo = flip(lower);
+        int hi = flip(upper);
+
+        int low = 0;
+        int high = v4Start.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (v4Start[mid] <= lo) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (found != -1 && hi <= v4End[found]) {
+            return found;
+        }
+        return -1;
+    }
+
+    /**
+     * Find position of the range containing an IPv6 range given as unsigned high/low {@code long} pairs.
+     * Positions are ordered by address, IPv4 ranges first, so for an index built by
+     * {@link #from(ASNTable)} the position is the {@link ASNTable} row.
+     *
+     * @return Position of range, or -1 if not found
+     */
+    public int find(long lowerHigh, long lowerLow, long upperHigh, long upperLow) {
+        int found = v6Index.find(lowerHigh, lowerLow, upperHigh, upperLow);
+        return found < 0 ? -1 : v4Start.length + found;
+    }
+
+    /**
+     * Number of ranges in this index
+     */
+    public int size() {
+        return v4Start.length + v6Index.size();
+    }
+
+    private static int flip(int value) {
+        return value ^ Integer.MIN_VALUE;
+    }
+
+    private static long flip(long value) {
+        return value ^ Long.MIN_VALUE;
+    }
+
+    private static long high(IPv6Address address) {
+        return (long) address.getSegment(0).getSegmentValue() << 48 |
+                (long) address.getSegment(1).getSegmentValue() << 32 |
+                (long) address.getSegment(2).getSegmentValue() << 16 |
+                address.getSegment(3).getSegmentValue();
+    }
+
+    private static long low(IPv6Address address) {
+        return (long) address.getSegment(4).getSegmentValue() << 48 |
+                (long) address.getSegment(5).getSegmentValue() << 32 |
+                (long) address.getSegment(6).getSegmentValue() << 16 |
+                address.getSegment(7).getSegmentValue();
+    }
+
+    private static long upperHigh(IPv6Address address) {
+        return (long) address.getSegment(0).getUpperSegmentValue() << 48 |
+                (long) address.getSegment(1).getUpperSegmentValue() << 32 |
+                (long) address.getSegment(2).getUpperSegmentValue() << 16 |
+                address.getSegment(3).getUpperSegmentValue();
+    }
+
+    private static long upperLow(IPv6Address address) {
+        return (long) address.getSegment(4).getUpperSegmentValue() << 48 |
+                (long) address.getSegment(5).getUpperSegmentValue() << 32 |
+                (long) address.getSegment(6).getUpperSegmentValue() << 16 |
+                address.getSegment(7).getUpperSegmentValue();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.asn;
+
+import io.github.secwrk.addr.IPParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ASNRangeJoin} finds every ASN whose range overlaps a set of networks, such as
+ * Firehol datacenter CIDR blocks.
+ * <p>
+ * Networks are sorted and merged into non-overlapping ranges, then swept in a single pass
+ * against the sorted ranges of an {@link ASNTable}, so a join takes O(N + M) after sorting
+ * networks. A network spanning several ASN ranges contributes to all of them.
+ * ASN ranges are expected to be non-overlapping, which holds for ip2asn data.
+ */
+public final class ASNRangeJoin {
+
+    private ASNRangeJoin() {
+        // Prevent outside initialization
+    }
+
+    /**
+     * Address space of an ASN which overlaps joined networks
+     *
+     * @param asn           Autonomous System Number
+     * @param ipv4Addresses Number of overlapping IPv4 addresses
+     * @param ipv6Subnets   Number of /64 subnets overlapping IPv6 ranges touch
+     */
+    public record Overlap(long asn, long ipv4Addresses, long ipv6Subnets) {
+    }
+
+    /**
+     * Join networks against ASN ranges. ASN 0 (not routed) is never reported.
+     *
+     * @param table    {@link ASNTable} instance
+     * @param networks Networks as CIDR blocks or single addresses, e.g. "1.2.3.0/24" or "2001:db8::1"
+     * @return {@link Overlap} of every overlapping ASN, ordered by ASN
+     * @throws IllegalArgumentException If a network is invalid
+     */
+    public static List<Overlap> join(ASNTable table, List<String> networks) {
+        List<Long> v4 = new ArrayList<>();
+        List<long[]> v6 = new ArrayList<>();
+        long[] scratch = new long[2];
+        for (String network : networks) {
+            parse(network.trim(), v4, v6, scratch);
+        }
+
+        Map<Long, long[]> overlaps = new TreeMap<>();
+        joinIPv4(table, mergeIPv4(v4), overlaps);
+        joinIPv6(table, mergeIPv6(v6), overlaps);
+
+        List<Overlap> result = new ArrayList<>(overlaps.size());
+        overlaps.forEach((asn, amount) -> result.add(new Overlap(asn, amount[0], amount[1])));
+        return result;
+    }
+
+    private static void joinIPv4(ASNTable table, long[] networks, Map<Long, long[]> overlaps) {
+        int network = 0;
+        int row = 0;
+        while (network < networks.length && row < table.ipv4Count()) {
+            long networkStart = networks[network] >>> 32;
+            long networkEnd = networks[network] & 0xFFFFFFFFL;
+            long rangeStart = Integer.toUnsignedLong(table.ipv4Start(row));
+            long rangeEnd = Integer.toUnsignedLong(table.ipv4End(row));
+
+            long start = Math.max(networkStart, rangeStart);
+            long end = Math.min(networkEnd, rangeEnd);
+            if (start <= end && table.asn(row) > 0) {
+                overlaps.computeIfAbsent(table.asn(row), asn -> new long[2])[0] += end - start + 1;
+            }
+
+            // Advance whichever range ends first, the other one may still overlap the next range
+            if (networkEnd < rangeEnd) {
+                network++;
+            } else {
+                row++;
+            }
+        }
+    }
+
+    private static void joinIPv6(ASNTable table, List<long[]> networks, Map<Long, long[]> overlaps) {
+        int network = 0;
+        int row = table.ipv4Count();
+        while (network < networks.size() && row < table.size()) {
+            long[] bounds = networks.get(network);
+            long rangeStartHi = table.ipv6StartHigh(row);
+            long rangeStartLo = table.ipv6StartLow(row);
+            long rangeEndHi = table.ipv6EndHigh(row);
+            long rangeEndLo = table.ipv6EndLow(row);
+
+            boolean networkFirst = compare(bounds[0], bounds[1], rangeStartHi, rangeStartLo) >= 0;
+            long startHi = networkFirst ? bounds[0] : rangeStartHi;
+            long startLo = networkFirst ? bounds[1] : rangeStartLo;
+            boolean networkEndsFirst = compare(bounds[2], bounds[3], rangeEndHi, rangeEndLo) < 0;
+            long endHi = networkEndsFirst ? bounds[2] : rangeEndHi;
+            long endLo = networkEndsFirst ? bounds[3] : rangeEndLo;
+
+            if (compare(startHi, startLo, endHi, endLo) <= 0 && table.asn(row) > 0) {
+                long[] amount = overlaps.computeIfAbsent(table.asn(row), asn -> new long[2]);
+                // Counts of 2^63 subnets and more do not fit and saturate
+                long subnets = endHi - startHi + 1;
+                amount[1] = subnets <= 0 ? Long.MAX_VALUE : saturatedAdd(amount[1], subnets);
+            }
+
+            if (networkEndsFirst) {
+                network++;
+            } else {
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Sort IPv4 networks and merge overlapping or adjacent ones. Each network is packed into
+     * a {@code long} as start in high 32 bits and end in low 32 bits.
+     */
+    private static long[] mergeIPv4(List<Long> networks) {
+        long[] packed = new long[networks.size()];
+        for (int i = 0; i < packed.length; i++) {
+            // Flip sign bit so signed sort gives unsigned order
+            packed[i] = networks.get(i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(packed);
+
+        int count = 0;
+        for (long value : packed) {
+            long network = value ^ Long.MIN_VALUE;
+            long start = network >>> 32;
+            long end = network & 0xFFFFFFFFL;
+            if (count > 0) {
+                long previousEnd = packed[count - 1] & 0xFFFFFFFFL;
+                if (start <= previousEnd + 1) {
+                    if (end > previousEnd) {
+                        packed[count - 1] = (packed[count - 1] >>> 32) << 32 | end;
+                    }
+                    continue;
+                }
+            }
+            packed[count++] = network;
+        }
+        return Arrays.copyOf(packed, count);
+    }
+
+    /**
+     * Sort IPv6 networks and merge overlapping or adjacent ones
+     */
+    private static List<long[]> mergeIPv6(List<long[]> networks) {
+        networks.sort(Comparator.<long[]>comparingLong(bounds -> bounds[0] ^ Long.MIN_VALUE)
+                .thenComparingLong(bounds -> bounds[1] ^ Long.MIN_VALUE));
+
+        List<long[]> merged = new ArrayList<>();
+        for (long[] bounds : networks) {
+            if (!merged.isEmpty()) {
+                long[] previous = merged.get(merged.size() - 1);
+                // Next address after previous end, unless previous end is last address
+                long nextLo = previous[3] + 1;
+                long nextHi = nextLo == 0 ? previous[2] + 1 : previous[2];
+                boolean last = previous[2] == -1 && previous[3] == -1;
+                if (last || compare(bounds[0], bounds[1], nextHi, nextLo) <= 0) {
+                    if (compare(bounds[2], bounds[3], previous[2], previous[3]) > 0) {
+                        previous[2] = bounds[2];
+                        previous[3] = bounds[3];
+                    }
+                    continue;
+                }
+            }
+            merged.add(bounds);
+        }
+        return merged;
+    }
+
+    private static void parse(String network, List<Long> v4, List<long[]> v6, long[] scratch) {
+        int slash = network.indexOf('/');
+        int addressEnd = slash < 0 ? network.length() : slash;
+
+        long ipv4 = IPParser.parseIPv4(network, 0, addressEnd);
+        if (ipv4 >= 0) {
+            int prefix = prefix(network, slash, 32);
+            long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            long start = ipv4 & mask;
+            long end = start | (~mask & 0xFFFFFFFFL);
+            v4.add(start << 32 | end);
+            return;
+        }
+
+        if (!IPParser.parseIPv6(network, 0, addressEnd, scratch)) {
+            throw new IllegalArgumentException("Invalid network: " + network);
+        }
+        int prefix = prefix(network, slash, 128);
+        long maskHi = prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+        long maskLo = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+        v6.add(new long[]{scratch[0] & maskHi, scratch[1] & maskLo, scratch[0] | ~maskHi, scratch[1] | ~maskLo});
+    }
+
+    private static int prefix(String network, int slash, int bits) {
+        if (slash < 0) {
+            return bits;
+        }
+        try {
+            int prefix = Integer.parseInt(network, slash + 1, network.length(), 10);
+            if (prefix >= 0 && prefix <= bits) {
+                return prefix;
+            }
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid network: " + network);
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int cmp = Long.compareUnsigned(aHi, bHi);
+        return cmp != 0 ? cmp : Long.compareUnsigned(aLo, bLo);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.asn;
+
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.RowOrder;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ASNTable} is a compact, column oriented store of ASN ranges.
+ * <p>
+ * Range bounds are kept as primitive numbers, ASN as {@code long} and country code and
+ * organization as ids into shared dictionaries. {@link ASNEntry} instances are only
+ * created on demand by {@link #entry(int)}.
+ * <p>
+ * Rows are sorted by address: IPv4 rows come first, followed by IPv6 rows.
+ */
+public final class ASNTable {
+
+    private final int v4Count;
+    private final int[] v4Start;
+    private final int[] v4End;
+
+    private final long[] v6StartHi;
+    private final long[] v6StartLo;
+    private final long[] v6EndHi;
+    private final long[] v6EndLo;
+
+    private final long[] asn;
+    private final int[] countryId;
+    private final int[] asoId;
+
+    private final String[] countries;
+    private final String[] organizations;
+
+    private ASNTable(int v4Count, int[] v4Start, int[] v4End,
+                     long[] v6StartHi, long[] v6StartLo, long[] v6EndHi, long[] v6EndLo,
+                     long[] asn, int[] countryId, int[] asoId, String[] countries, String[] organizations) {
+        this.v4Count = v4Count;
+        this.v4Start = v4Start;
+        this.v4End = v4End;
+        this.v6StartHi = v6StartHi;
+        this.v6StartLo = v6StartLo;
+        this.v6EndHi = v6EndHi;
+        this.v6EndLo = v6EndLo;
+        this.asn = asn;
+        this.countryId = countryId;
+        this.asoId = asoId;
+        this.countries = countries;
+        this.organizations = organizations;
+    }
+
+    /**
+     * Create a new {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of rows
+     */
+    public int size() {
+        return asn.length;
+    }
+
+    /**
+     * Number of IPv4 rows. IPv4 rows occupy indexes {@code [0, ipv4Count())}.
+     */
+    public int ipv4Count() {
+        return v4Count;
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if row holds an IPv4 range
+     */
+    public boolean isIPv4(int row) {
+        return row < v4Count;
+    }
+
+    /**
+     * Start of IPv4 range of a row as raw address bits
+     */
+    public int ipv4Start(int row) {
+        return v4Start[row];
+    }
+
+    /**
+     * End of IPv4 range of a row as raw address bits
+     */
+    public int ipv4End(int row) {
+        return v4End[row];
+    }
+
+    /**
+     * High 64 bits of start of IPv6 range of a row
+     */
+    public long ipv6StartHigh(int row) {
+        return v6StartHi[row - v4Count];
+    }
+
+    /**
+     * Low 64 bits of start of IPv6 range of a row
+     */
+    public long ipv6StartLow(int row) {
+        return v6StartLo[row - v4Count];
+    }
+
+    /**
+     * High 64 bits of end of IPv6 range of a row
+     */
+    public long ipv6EndHigh(int row) {
+        return v6EndHi[row - v4Count];
+    }
+
+    /**
+     * Low 64 bits of end of IPv6 range of a row
+     */
+    public long ipv6EndLow(int row) {
+        return v6EndLo[row - v4Count];
+    }
+
+    /**
+     * Autonomous system number of a row
+     */
+    public long asn(int row) {
+        return asn[row];
+    }
+
+    /**
+     * Country code of a row, {@code null} if source had no country code
+     */
+    public String countryCode(int row) {
+        int id = countryId[row];
+        return id < 0 ? null : countries[id];
+    }
+
+    /**
+     * Autonomous system organization of a row
+     */
+    public String aso(int row) {
+        return organizations[asoId[row]];
+    }
+
+    /**
+     * Start of range of a row as text
+     */
+    public String ipRangeStart(int row) {
+        return isIPv4(row) ? IPParser.formatIPv4(ipv4Start(row)) : IPParser.formatIPv6(ipv6StartHigh(row), ipv6StartLow(row));
+    }
+
+    /**
+     * End of range of a row as text
+     */
+    public String ipRangeEnd(int row) {
+        return isIPv4(row) ? IPParser.formatIPv4(ipv4End(row)) : IPParser.formatIPv6(ipv6EndHigh(row), ipv6EndLow(row));
+    }
+
+    /**
+     * Create an {@link ASNEntry} view of a row
+     *
+     * @param row Row index
+     * @return {@link ASNEntry} instance
+     */
+    public ASNEntry entry(int row) {
+        String countryCode = countryCode(row);
+        if (countryCode == null) {
+            return ASNEntry.create(ipRangeStart(row), ipRangeEnd(row), asn(row), aso(row));
+        }
+
+        try {
+            return ASNEntry.create(ipRangeStart(row), ipRangeEnd(row), asn(row), countryCode, aso(row));
+        } catch (UnknownHostException e) {
+            // Range bounds are always formatted as IP literals
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builder for {@link ASNTable}. Rows can be added in any order.
+     */
+    public static final class Builder {
+
+        private final long[] scratch = new long[2];
+
+        private int v4Count;
+        private int[] v4Start = new int[1024];
+        private int[] v4End = new int[1024];
+        private long[] v4Asn = new long[1024];
+        private int[] v4Country = new int[1024];
+        private int[] v4Aso = new int[1024];
+
+        private int v6Count;
+        private long[] v6Bounds = new long[4 * 1024];
+        private long[] v6Asn = new long[1024];
+        private int[] v6Country = new int[1024];
+        private int[] v6Aso = new int[1024];
+
+        private final Map<String, Integer> countryIds = new HashMap<>();
+        private final List<String> countries = new ArrayList<>();
+        private final Map<String, Integer> organizationIds = new HashMap<>();
+        private final List<String> organizations = new ArrayList<>();
+
+        private Builder() {
+            // Use ASNTable#builder()
+        }
+
+        /**
+         * Add an ASN range
+         *
+         * @param ipRangeStart Start of range
+         * @param ipRangeEnd   End of range
+         * @param asn          Autonomous System Number
+         * @param countryCode  Country code, may be {@code null}
+         * @param aso          Autonomous System Organization
+         * @return this {@link Builder}
+         * @throws IllegalArgumentException If range is invalid
+         */
+        public Builder add(CharSequence ipRangeStart, CharSequence ipRangeEnd, long asn, String countryCode, String aso) {
+            return add(ipRangeStart, 0, ipRangeStart.length(), ipRangeEnd, 0, ipRangeEnd.length(), asn, countryCode, aso);
+        }
+
+        private Builder add(CharSequence startText, int startFrom, int startTo, CharSequence endText, int endFrom, int endTo,
+                            long asn, String countryCode, String aso) {
+            int country = countryCode == null ? -1 : id(countryCode, countryIds, countries);
+            int organization = id(aso, organizationIds, organizations);
+
+            long start = IPParser.parseIPv4(startText, startFrom, startTo);
+            long end = IPParser.parseIPv4(endText, endFrom, endTo);
+            if (start >= 0 && end >= 0) {
+                if (v4Count == v4Start.length) {
+                    int capacity = v4Count * 2;
+                    v4Start = Arrays.copyOf(v4Start, capacity);
+                    v4End = Arrays.copyOf(v4End, capacity);
+                    v4Asn = Arrays.copyOf(v4Asn, capacity);
+                    v4Country = Arrays.copyOf(v4Country, capacity);
+                    v4Aso = Arrays.copyOf(v4Aso, capacity);
+                }
+                v4Start[v4Count] = (int) start;
+                v4End[v4Count] = (int) end;
+                v4Asn[v4Count] = asn;
+                v4Country[v4Count] = country;
+                v4Aso[v4Count] = organization;
+                v4Count++;
+                return this;
+            }
+
+            if (v6Count == v6Asn.length) {
+                int capacity = v6Count * 2;
+                v6Bounds = Arrays.copyOf(v6Bounds, capacity * 4);
+                v6Asn = Arrays.copyOf(v6Asn, capacity);
+                v6Country = Arrays.copyOf(v6Country, capacity);
+                v6Aso = Arrays.copyOf(v6Aso, capacity);
+            }
+            if (!IPParser.parseIPv6(startText, startFrom, startTo, scratch)) {
+                throw new IllegalArgumentException("Invalid IP Address Range: " + startText.subSequence(startFrom, startTo));
+            }
+            v6Bounds[v6Count * 4] = scratch[0];
+            v6Bounds[v6Count * 4 + 1] = scratch[1];
+            if (!IPParser.parseIPv6(endText, endFrom, endTo, scratch)) {
+                throw new IllegalArgumentException("Invalid IP Address Range: " + endText.subSequence(endFrom, endTo));
+            }
+            v6Bounds[v6Count * 4 + 2] = scratch[0];
+            v6Bounds[v6Count * 4 + 3] = scratch[1];
+            v6Asn[v6Count] = asn;
+            v6Country[v6Count] = country;
+            v6Aso[v6Count] = organization;
+            v6Count++;
+            return this;
+        }
+
+        /**
+         * Add a line of ip2asn TSV data
+         * ({@code range_start, range_end, AS_number, country_code, AS_description}).
+         *
+         * @param line TSV line
+         * @return this {@link Builder}
+         * @throws IllegalArgumentException If line is invalid
+         */
+        public Builder addTsvLine(String line) {
+            int first = line.indexOf('\t');
+            int second = line.indexOf('\t', first + 1);
+            int third = line.indexOf('\t', second + 1);
+            int fourth = line.indexOf('\t', third + 1);
+            if (first < 0 || second < 0 || third < 0 || fourth < 0) {
+                throw new IllegalArgumentException("Invalid ASN line: " + line);
+            }
+
+            long asn = Long.parseLong(line, second + 1, third, 10);
+            return add(line, 0, first, line, first + 1, second, asn,
+                    line.substring(third + 1, fourth), line.substring(fourth + 1));
+        }
+
+        /**
+         * Build {@link ASNTable}. Rows are sorted by start of range.
+         */
+        public ASNTable build() {
+            int size = v4Count + v6Count;
+            int[] start4 = new int[v4Count];
+            int[] end4 = new int[v4Count];
+            long[] startHi = new long[v6Count];
+            long[] startLo = new long[v6Count];
+            long[] endHi = new long[v6Count];
+            long[] endLo = new long[v6Count];
+            long[] asn = new long[size];
+            int[] countryId = new int[size];
+            int[] asoId = new int[size];
+
+            int[] order4 = RowOrder.sorted(v4Count, (a, b) -> Integer.compareUnsigned(v4Start[a], v4Start[b]));
+            for (int i = 0; i < v4Count; i++) {
+                int from = order4[i];
+                start4[i] = v4Start[from];
+                end4[i] = v4End[from];
+                asn[i] = v4Asn[from];
+                countryId[i] = v4Country[from];
+                asoId[i] = v4Aso[from];
+            }
+
+            int[] order6 = RowOrder.sorted(v6Count, (a, b) -> {
+                int cmp = Long.compareUnsigned(v6Bounds[a * 4], v6Bounds[b * 4]);
+                return cmp != 0 ? cmp : Long.compareUnsigned(v6Bounds[a * 4 + 1], v6Bounds[b * 4 + 1]);
+            });
+            for (int i = 0; i < v6Count; i++) {
+                int from = order6[i];
+                startHi[i] = v6Bounds[from * 4];
+                startLo[i] = v6Bounds[from * 4 + 1];
+                endHi[i] = v6Bounds[from * 4 + 2];
+                endLo[i] = v6Bounds[from * 4 + 3];
+                asn[v4Count + i] = v6Asn[from];
+                countryId[v4Count + i] = v6Country[from];
+                asoId[v4Count + i] = v6Aso[from];
+            }
+
+            return new ASNTable(v4Count, start4, end4, startHi, startLo, endHi, endLo, asn, countryId, asoId,
+                    countries.toArray(String[]::new), organizations.toArray(String[]::new));
+        }
+
+        private static int id(String value, Map<String, Integer> ids, List<String> values) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+    }
+}
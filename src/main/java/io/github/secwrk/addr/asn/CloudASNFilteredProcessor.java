@@ -18,24 +18,19 @@ package io.github.secwrk.addr.asn;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import inet.ipaddr.IPAddress;
-import inet.ipaddr.IPAddressString;
 import io.github.secwrk.addr.Downloader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringReader;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 /**
  * {@link CloudASNFilteredProcessor} fetches ASN List from iptoasn.com and Cloud Providers IP address list
  * from Firehol and maps IP address to ASN and stores it into "ASN.json" file in Json format.
+ * Every ASN whose ranges overlap a Firehol network is included, together with the size of the overlap.
  * This can be used to filter cloud provider IP addresses.
  */
 public final class CloudASNFilteredProcessor {
@@ -44,34 +39,63 @@ public final class CloudASNFilteredProcessor {
             .setPrettyPrinting()
             .create();
 
+    public static final String ASN_URL = "https://iptoasn.com/data/ip2asn-combined.tsv.gz";
+    public static final String DATACENTER_URL = "https://raw.githubusercontent.com/firehol/blocklist-ipsets/master/datacenters.netset";
+
     public static void main(String[] args) throws Exception {
         echo("Downloading ASN File");
 
-        // Download ASN File
-        byte[] bytes = Downloader.downloadAsBytes("https://iptoasn.com/data/ip2asn-combined.tsv.gz");
-        List<ASNEntry> entries = readAsnEntries(new String(bytes));
+        // Download ASN File and parse it while it is being decompressed
+        ASNTable table = readAsnTable(ASN_URL);
 
         echo("Downloading Datacenter IP File");
         // Download Datacenter IP File
-        List<String> response = Downloader.downloadAsStream("https://raw.githubusercontent.com/firehol/blocklist-ipsets/master/datacenters.netset")
-                .filter(s -> s.charAt(0) != '#') // Filter lines which are not commented.
+        List<String> response = Downloader.downloadAsStream(DATACENTER_URL).toList();
+
+        process(table, response);
+    }
+
+    /**
+     * Process already downloaded files
+     *
+     * @param asnPath        Path of gzip compressed ip2asn-combined file
+     * @param datacenterPath Path of Firehol datacenters netset file
+     */
+    public static void process(Path asnPath, Path datacenterPath) throws IOException {
+        echo("Reading ASN File");
+        ASNTable.Builder builder = ASNTable.builder();
+        Downloader.readCompressedLines(asnPath, builder::addTsvLine);
+
+        process(builder.build(), Files.readAllLines(datacenterPath));
+    }
+
+    private static void process(ASNTable table, List<String> datacenterLines) throws IOException {
+        List<String> response = datacenterLines.stream()
+                .filter(s -> !s.isEmpty() && s.charAt(0) != '#') // Filter lines which are not commented.
                 .toList();
 
         echo("Processing ASN");
-        // Match Datacenter IP against ASN List and Collect
-        // matching ASN to Set.
-        Set<Long> ASN_SET = response.parallelStream()
-                .map(ip -> getAsn(entries, new IPAddressString(ip).getAddress()))
-                .filter(asn -> asn > 0)          // Filter ASN which are greater than 0
-                .collect(Collectors.toCollection(TreeSet::new));
+        // Join Datacenter networks against ASN ranges in one sweep,
+        // every ASN overlapping a network is collected with overlap size.
+        List<ASNRangeJoin.Overlap> overlaps = ASNRangeJoin.join(table, response);
 
         echo("Transforming result to Json");
         // Create Json and add ASN List
         JsonArray asnArray = new JsonArray();
-        ASN_SET.forEach(asnArray::add);
+        JsonArray overlapArray = new JsonArray();
+        for (ASNRangeJoin.Overlap overlap : overlaps) {
+            asnArray.add(overlap.asn());
+
+            JsonObject overlapObject = new JsonObject();
+            overlapObject.addProperty("asn", overlap.asn());
+            overlapObject.addProperty("ipv4Addresses", overlap.ipv4Addresses());
+            overlapObject.addProperty("ipv6Subnets64", overlap.ipv6Subnets());
+            overlapArray.add(overlapObject);
+        }
 
         JsonObject jsonObject = new JsonObject();
         jsonObject.add("asn", asnArray);
+        jsonObject.add("overlap", overlapArray);
 
         echo("Writing ASN.json File");
         // Write Json to File
@@ -82,32 +106,10 @@ public final class CloudASNFilteredProcessor {
         echo("Finished...");
     }
 
-    /**
-     * Lookup for {@link ASNEntry} for an IP Address
-     *
-     * @param list    {@link List} of {@link ASNEntry}
-     * @param address IP address to search for
-     * @return Returns ASN for IP Address. Returns -1 if not found.
-     */
-    private static long getAsn(List<ASNEntry> list, IPAddress address) {
-        for (ASNEntry ASNEntry : list) {
-            if (ASNEntry.isInsideRange(address)) {
-                return ASNEntry.asn();
-            }
-        }
-        return -1;
-    }
-
-    private static List<ASNEntry> readAsnEntries(String data) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new StringReader(data))) {
-            List<ASNEntry> list = new ArrayList<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] items = line.split("\t");
-                list.add(ASNEntry.create(items[0], items[1], Long.parseLong(items[2]), items[3], items[4]));
-            }
-            return list;
-        }
+    private static ASNTable readAsnTable(String url) throws IOException, InterruptedException {
+        ASNTable.Builder builder = ASNTable.builder();
+        Downloader.downloadCompressedLines(url, builder::addTsvLine);
+        return builder.build();
     }
 
     /**
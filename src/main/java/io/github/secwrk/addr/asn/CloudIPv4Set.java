@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.asn;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link CloudIPv4Set} answers whether an IPv4 address belongs to a Public Cloud Provider
+ * network with one or two memory reads.
+ * <p>
+ * A 2 MB bitmap holds one bit per /24 block which is covered completely. Blocks which are
+ * covered partially are kept in a small open-addressing hash table of 256-bit bitmaps, so
+ * membership is exact down to single addresses. Only addresses in partial blocks need the
+ * second read.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class CloudIPv4Set {
+
+    private static final int BLOCKS = 1 << 24;
+    private static final int EMPTY = -1;
+
+    private final long[] full;
+    private final int[] partialKeys;
+    private final long[] partialBits;
+    private final int partialMask;
+
+    private CloudIPv4Set(long[] full, Map<Integer, long[]> partials) {
+        this.full = full;
+
+        int capacity = Integer.highestOneBit(Math.max(1, partials.size()) * 2) * 2;
+        partialKeys = new int[capacity];
+        partialBits = new long[capacity * 4];
+        partialMask = capacity - 1;
+        Arrays.fill(partialKeys, EMPTY);
+        partials.forEach((block, bits) -> {
+            int slot = slot(block);
+            while (partialKeys[slot] != EMPTY) {
+                slot = (slot + 1) & partialMask;
+            }
+            partialKeys[slot] = block;
+            System.arraycopy(bits, 0, partialBits, slot * 4, 4);
+        });
+    }
+
+    /**
+     * Create a new {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if an IPv4 address is in this set
+     *
+     * @param ipv4 Raw address bits
+     */
+    public boolean contains(int ipv4) {
+        int block = ipv4 >>> 8;
+        if ((full[block >>> 6] & (1L << block)) != 0) {
+            return true;
+        }
+
+        for (int slot = slot(block); partialKeys[slot] != EMPTY; slot = (slot + 1) & partialMask) {
+            if (partialKeys[slot] == block) {
+                return (partialBits[slot * 4 + ((ipv4 >>> 6) & 3)] & (1L << ipv4)) != 0;
+            }
+        }
+        return false;
+    }
+
+    private int slot(int block) {
+        // Spread neighbouring blocks, they are common in network lists
+        return (block * 0x9E3779B1) >>> 8 & partialMask;
+    }
+
+    /**
+     * Builder for {@link CloudIPv4Set}. Ranges can be added in any order and may overlap.
+     */
+    public static final class Builder {
+
+        private final long[] full = new long[BLOCKS / 64];
+        private final Map<Integer, long[]> partials = new HashMap<>();
+
+        private Builder() {
+            // Use CloudIPv4Set#builder()
+        }
+
+        /**
+         * Add an IPv4 range
+         *
+         * @param start Start of range as raw address bits
+         * @param end   End of range as raw address bits, inclusive
+         * @return this {@link Builder}
+         */
+        public Builder add(int start, int end) {
+            if (Integer.compareUnsigned(start, end) > 0) {
+                throw new IllegalArgumentException("Invalid IP Address Range: start is after end");
+            }
+
+            int firstBlock = start >>> 8;
+            int lastBlock = end >>> 8;
+            if (firstBlock == lastBlock) {
+                addPartial(firstBlock, start & 0xFF, end & 0xFF);
+                return this;
+            }
+
+            // Edges may cover part of a block, everything in between is covered completely
+            int firstFull = firstBlock;
+            if ((start & 0xFF) != 0) {
+                addPartial(firstBlock, start & 0xFF, 0xFF);
+                firstFull++;
+            }
+            int lastFull = lastBlock;
+            if ((end & 0xFF) != 0xFF) {
+                addPartial(lastBlock, 0, end & 0xFF);
+                lastFull--;
+            }
+            for (int block = firstFull; block <= lastFull; block++) {
+                full[block >>> 6] |= 1L << block;
+            }
+            return this;
+        }
+
+        /**
+         * Build {@link CloudIPv4Set}
+         */
+        public CloudIPv4Set build() {
+            long[] bits = full.clone();
+            Map<Integer, long[]> remaining = new HashMap<>();
+            partials.forEach((block, blockBits) -> {
+                if ((bits[block >>> 6] & (1L << block)) != 0) {
+                    return;
+                }
+                // Partial ranges may add up to a full block
+                if ((blockBits[0] & blockBits[1] & blockBits[2] & blockBits[3]) == -1L) {
+                    bits[block >>> 6] |= 1L << block;
+                } else {
+                    remaining.put(block, blockBits.clone());
+                }
+            });
+            return new CloudIPv4Set(bits, remaining);
+        }
+
+        private void addPartial(int block, int from, int to) {
+            long[] bits = partials.computeIfAbsent(block, key -> new long[4]);
+            for (int i = from; i <= to; i++) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import io.github.secwrk.addr.IPParser;
+
+/**
+ * {@link CityCoalescer} merges contiguous {@link CityEntry} ranges with identical attributes
+ * while entries stream through it in range order.
+ * <p>
+ * Ranges are contiguous if the start of a range directly follows the end of the previous range
+ * and both are of the same address family. Attributes are continent, country, state/province,
+ * city and coordinates, country and continent names follow from the country code.
+ * Instances are not thread-safe.
+ */
+public final class CityCoalescer {
+
+    private final long[] previousEnd = new long[2];
+    private final long[] nextStart = new long[2];
+
+    private CityEntry pending;
+    private long inputCount;
+    private long outputCount;
+
+    /**
+     * Add next {@link CityEntry} in range order
+     *
+     * @param cityEntry {@link CityEntry} instance
+     * @return Previous {@link CityEntry} if it cannot be merged with anything that follows, otherwise {@code null}
+     */
+    public CityEntry add(CityEntry cityEntry) {
+        inputCount++;
+        if (pending == null) {
+            pending = cityEntry;
+            return null;
+        }
+
+        if (sameAttributes(pending, cityEntry) && contiguous(pending, cityEntry)) {
+            pending = CityEntry.from(pending.ipStart(), cityEntry.ipEnd(), pending.continentCode(), pending.countryCode(),
+                    pending.stateProvince(), pending.city(), pending.latitude(), pending.longitude(),
+                    pending.countryName(), pending.continentName());
+            return null;
+        }
+
+        CityEntry completed = pending;
+        pending = cityEntry;
+        outputCount++;
+        return completed;
+    }
+
+    /**
+     * Returns last {@link CityEntry} at end of input
+     *
+     * @return Last {@link CityEntry}, or {@code null} if nothing was added since previous flush
+     */
+    public CityEntry flush() {
+        CityEntry completed = pending;
+        if (completed != null) {
+            pending = null;
+            outputCount++;
+        }
+        return completed;
+    }
+
+    /**
+     * Number of entries added
+     */
+    public long inputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Number of entries returned
+     */
+    public long outputCount() {
+        return outputCount;
+    }
+
+    private static boolean sameAttributes(CityEntry a, CityEntry b) {
+        return Float.floatToIntBits(a.latitude()) == Float.floatToIntBits(b.latitude())
+                && Float.floatToIntBits(a.longitude()) == Float.floatToIntBits(b.longitude())
+                && a.city().equals(b.city())
+                && a.stateProvince().equals(b.stateProvince())
+                && a.countryCode().equals(b.countryCode())
+                && a.continentCode().equals(b.continentCode());
+    }
+
+    private boolean contiguous(CityEntry previous, CityEntry next) {
+        long end = IPParser.parseIPv4(previous.ipEnd());
+        if (end >= 0) {
+            return end + 1 == IPParser.parseIPv4(next.ipStart());
+        }
+
+        if (!IPParser.parseIPv6(previous.ipEnd(), previousEnd) || !IPParser.parseIPv6(next.ipStart(), nextStart)) {
+            return false;
+        }
+        long low = previousEnd[1] + 1;
+        long high = low == 0 ? previousEnd[0] + 1 : previousEnd[0];
+        // End of address space has no successor
+        return !(low == 0 && high == 0) && high == nextStart[0] && low == nextStart[1];
+    }
+}
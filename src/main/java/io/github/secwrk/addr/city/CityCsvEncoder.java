@@ -0,0 +1,194 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import java.util.Arrays;
+
+/**
+ * {@link CityCsvEncoder} encodes {@link CityEntry} rows of City CSV files into a reusable
+ * byte buffer, without creating intermediate objects.
+ * <p>
+ * Output is byte-for-byte the same as of opencsv {@code CSVWriter} with default settings:
+ * every field is quoted, quotes inside a field are doubled, strings are UTF-8 and rows end
+ * with "\n". Floats are formatted the same as {@link Float#toString(float)}, through a fast
+ * path for coordinates with few fractional digits, falling back to {@link Float#toString(float)}
+ * for anything else.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class CityCsvEncoder {
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000};
+
+    private byte[] buffer = new byte[512];
+    private int length;
+
+    /**
+     * Encode a {@link CityEntry} as one CSV row
+     *
+     * @param cityEntry {@link CityEntry} instance
+     * @return Length of encoded row in {@link #buffer()}
+     */
+    public int encode(CityEntry cityEntry) {
+        length = 0;
+        string(cityEntry.ipStart());
+        separator();
+        string(cityEntry.ipEnd());
+        separator();
+        string(cityEntry.continentCode());
+        separator();
+        string(cityEntry.countryCode());
+        separator();
+        string(cityEntry.continentName());
+        separator();
+        string(cityEntry.countryName());
+        separator();
+        string(cityEntry.stateProvince());
+        separator();
+        string(cityEntry.city());
+        separator();
+        decimal(cityEntry.latitude());
+        separator();
+        decimal(cityEntry.longitude());
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+        return length;
+    }
+
+    /**
+     * Buffer holding last encoded row, reused by next call of {@link #encode(CityEntry)}
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    private void separator() {
+        ensureCapacity(1);
+        buffer[length++] = ',';
+    }
+
+    private void string(String value) {
+        // Quotes, worst case of 3 bytes per char and doubled quotes fit in 3 bytes per char
+        ensureCapacity(value.length() * 3 + 2);
+        byte[] bytes = buffer;
+        int position = length;
+        bytes[position++] = '"';
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    bytes[position++] = '"';
+                }
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Same replacement as String#getBytes for unpaired surrogates
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+
+        bytes[position++] = '"';
+        length = position;
+    }
+
+    private void decimal(float value) {
+        ensureCapacity(32);
+        buffer[length++] = '"';
+        if (!fastDecimal(value)) {
+            String text = Float.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                buffer[length++] = (byte) text.charAt(i);
+            }
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * Format a float with at most 5 fractional digits in plain notation. The shortest decimal
+     * which parses back to the same float is written, which is what {@link Float#toString(float)}
+     * writes for such values.
+     *
+     * @return {@link Boolean#FALSE} if value needs more digits or scientific notation
+     */
+    private boolean fastDecimal(float value) {
+        float magnitude = Math.abs(value);
+        // Float#toString switches to scientific notation outside of [10^-3, 10^7)
+        if (!(magnitude >= 1e-3f && magnitude < 1e7f)) {
+            return false;
+        }
+
+        for (int digits = 1; digits < POWERS_OF_TEN.length; digits++) {
+            long scale = POWERS_OF_TEN[digits];
+            // Product is exact in double, ties are rounded to even as Float#toString does
+            long scaled = (long) Math.rint((double) magnitude * scale);
+            if ((float) ((double) scaled / scale) != magnitude) {
+                continue;
+            }
+
+            if (value < 0) {
+                buffer[length++] = '-';
+            }
+            writeLong(scaled / scale);
+            buffer[length++] = '.';
+
+            // Fractional digits, trailing zeros are dropped except for the first one
+            long fraction = scaled % scale;
+            int written = digits;
+            while (written > 1 && fraction % 10 == 0) {
+                fraction /= 10;
+                written--;
+            }
+            for (int i = written - 1; i >= 0; i--) {
+                buffer[length + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            length += written;
+            return true;
+        }
+        return false;
+    }
+
+    private void writeLong(long value) {
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[length + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
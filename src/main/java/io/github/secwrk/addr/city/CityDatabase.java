@@ -0,0 +1,286 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.IPv6RangeIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link CityDatabase} queries a binary City database written by {@link CityDatabaseWriter}
+ * in place, through a memory-mapped file.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ * Header      magic, version, IPv4 range count, IPv6 range count, record count, string count,
+ *             IPv4 offset, IPv6 offset, record offset, string index offset, string data offset,
+ *             file size (12 x int)
+ * IPv4 ranges int start[], int end[], int record[]
+ * IPv6 ranges long startHigh[], long startLow[], long endHigh[], long endLow[], int record[]
+ * Records     continent code, country code, continent name, country name, state/province
+ *             and city as string ids, latitude and longitude as float (8 x 4 bytes)
+ * Strings     int offset[string count + 1], UTF-8 bytes
+ * </pre>
+ * Ranges are sorted by start of range and are non-overlapping. IPv6 range bounds are searched
+ * in place by an {@link IPv6RangeIndex} over views of the mapped file.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class CityDatabase {
+
+    static final int MAGIC = 0x41444343; // "ADCC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12 * 4;
+    static final int RECORD_SIZE = 8 * 4;
+
+    private final ByteBuffer buffer;
+
+    private final int v4Count;
+    private final int v6Count;
+    private final int recordCount;
+
+    private final int v4StartOffset;
+    private final int v4EndOffset;
+    private final int v4RecordOffset;
+    private final int v6RecordOffset;
+    private final IPv6RangeIndex v6Index;
+    private final int recordOffset;
+    private final int stringIndexOffset;
+    private final int stringDataOffset;
+
+    /**
+     * Decoded strings, filled lazily. Racing threads decode the same value, so no locking is needed.
+     */
+    private final String[] strings;
+
+    private CityDatabase(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a City database");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported City database version: " + buffer.getInt(4));
+        }
+        if (buffer.getInt(44) != buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated City database");
+        }
+
+        v4Count = buffer.getInt(8);
+        v6Count = buffer.getInt(12);
+        recordCount = buffer.getInt(16);
+        strings = new String[buffer.getInt(20)];
+
+        int v4Offset = buffer.getInt(24);
+        v4StartOffset = v4Offset;
+        v4EndOffset = v4Offset + v4Count * 4;
+        v4RecordOffset = v4Offset + v4Count * 8;
+
+        int v6Offset = buffer.getInt(28);
+        v6RecordOffset = v6Offset + v6Count * 32;
+        v6Index = IPv6RangeIndex.from(longs(v6Offset), longs(v6Offset + v6Count * 8),
+                longs(v6Offset + v6Count * 16), longs(v6Offset + v6Count * 24));
+
+        recordOffset = buffer.getInt(32);
+        stringIndexOffset = buffer.getInt(36);
+        stringDataOffset = buffer.getInt(40);
+    }
+
+    /**
+     * Memory-map a City database file
+     *
+     * @param path Path of database file
+     * @return {@link CityDatabase} instance
+     */
+    public static CityDatabase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new CityDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Wrap a City database which is already in memory
+     *
+     * @param buffer {@link ByteBuffer} holding database
+     * @return {@link CityDatabase} instance
+     */
+    public static CityDatabase wrap(ByteBuffer buffer) {
+        return new CityDatabase(buffer.duplicate());
+    }
+
+    /**
+     * Number of IPv4 ranges
+     */
+    public int ipv4Count() {
+        return v4Count;
+    }
+
+    /**
+     * Number of IPv6 ranges
+     */
+    public int ipv6Count() {
+        return v6Count;
+    }
+
+    /**
+     * Number of distinct records
+     */
+    public int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Find IPv4 range containing an address
+     *
+     * @param address Raw address bits
+     * @return Range index, or -1 if not found
+     */
+    public int findIPv4(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = v4Count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if ((buffer.getInt(v4StartOffset + mid * 4) ^ Integer.MIN_VALUE) <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (found != -1 && key <= (buffer.getInt(v4EndOffset + found * 4) ^ Integer.MIN_VALUE)) {
+            return found;
+        }
+        return -1;
+    }
+
+    /**
+     * Find IPv6 range containing an address
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return Range index, or -1 if not found
+     */
+    public int findIPv6(long high, long low) {
+        return v6Index.find(high, low);
+    }
+
+    /**
+     * Start of an IPv4 range as raw address bits
+     */
+    public int ipv4Start(int range) {
+        return buffer.getInt(v4StartOffset + range * 4);
+    }
+
+    /**
+     * End of an IPv4 range as raw address bits
+     */
+    public int ipv4End(int range) {
+        return buffer.getInt(v4EndOffset + range * 4);
+    }
+
+    /**
+     * Record of an IPv4 range
+     */
+    public int ipv4Record(int range) {
+        return buffer.getInt(v4RecordOffset + range * 4);
+    }
+
+    /**
+     * Record of an IPv6 range
+     */
+    public int ipv6Record(int range) {
+        return buffer.getInt(v6RecordOffset + range * 4);
+    }
+
+    /**
+     * Lookup {@link CityEntry} for an IP address
+     *
+     * @param ip IPv4 or IPv6 address text
+     * @return {@link CityEntry} instance, or {@code null} if not found
+     */
+    public CityEntry lookup(String ip) {
+        long ipv4 = IPParser.parseIPv4(ip);
+        if (ipv4 >= 0) {
+            int range = findIPv4((int) ipv4);
+            return range < 0 ? null : ipv4Entry(range);
+        }
+
+        long[] address = new long[2];
+        if (IPParser.parseIPv6(ip, address)) {
+            int range = findIPv6(address[0], address[1]);
+            return range < 0 ? null : ipv6Entry(range);
+        }
+        return null;
+    }
+
+    /**
+     * Create a {@link CityEntry} view of an IPv4 range
+     */
+    public CityEntry ipv4Entry(int range) {
+        return entry(IPParser.formatIPv4(ipv4Start(range)),
+                IPParser.formatIPv4(ipv4End(range)),
+                ipv4Record(range));
+    }
+
+    /**
+     * Create a {@link CityEntry} view of an IPv6 range
+     */
+    public CityEntry ipv6Entry(int range) {
+        return entry(IPParser.formatIPv6(v6Index.startHigh(range), v6Index.startLow(range)),
+                IPParser.formatIPv6(v6Index.endHigh(range), v6Index.endLow(range)),
+                ipv6Record(range));
+    }
+
+    private CityEntry entry(String ipStart, String ipEnd, int record) {
+        int offset = recordOffset + record * RECORD_SIZE;
+        return CityEntry.from(ipStart, ipEnd,
+                string(buffer.getInt(offset)),
+                string(buffer.getInt(offset + 4)),
+                string(buffer.getInt(offset + 16)),
+                string(buffer.getInt(offset + 20)),
+                buffer.getFloat(offset + 24),
+                buffer.getFloat(offset + 28),
+                string(buffer.getInt(offset + 12)),
+                string(buffer.getInt(offset + 8)));
+    }
+
+    private LongBuffer longs(int offset) {
+        return buffer.slice(offset, v6Count * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    private String string(int id) {
+        String value = strings[id];
+        if (value == null) {
+            int start = buffer.getInt(stringIndexOffset + id * 4);
+            int end = buffer.getInt(stringIndexOffset + (id + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            buffer.get(stringDataOffset + start, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = value;
+        }
+        return value;
+    }
+}
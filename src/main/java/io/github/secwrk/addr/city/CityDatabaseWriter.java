@@ -0,0 +1,234 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CityDatabaseWriter} collects {@link CityEntry} instances into a {@link CityTable}
+ * and writes them in binary format which can be memory-mapped by {@link CityDatabase}.
+ * <p>
+ * Attributes shared by many ranges are stored once as a record, and every string
+ * is stored once in a string pool.
+ */
+public final class CityDatabaseWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CityTable.Builder builder = CityTable.builder();
+
+    /**
+     * Add a {@link CityEntry}
+     *
+     * @param cityEntry {@link CityEntry} instance
+     * @throws IllegalArgumentException If IP range is invalid
+     */
+    public void add(CityEntry cityEntry) {
+        builder.add(cityEntry);
+    }
+
+    /**
+     * Write database file. Ranges are sorted by start of range.
+     *
+     * @param path Path of database file
+     */
+    public void write(Path path) throws IOException {
+        write(builder.build(), path);
+    }
+
+    /**
+     * Write database file of a {@link CityTable}. Sections are written through a small buffer,
+     * so only the {@link CityTable} and its distinct records are held in memory.
+     *
+     * @param table {@link CityTable} instance
+     * @param path  Path of database file
+     */
+    public static void write(CityTable table, Path path) throws IOException {
+        int v4Count = table.ipv4Count();
+        int v6Count = table.size() - v4Count;
+
+        // Records are numbered in order of first use
+        Map<Record, Integer> recordIds = new HashMap<>();
+        List<Record> records = new ArrayList<>();
+        int[] rowRecords = new int[table.size()];
+        for (int row = 0; row < table.size(); row++) {
+            Record record = new Record(table.continentCodeId(row), table.countryCodeId(row),
+                    table.continentNameId(row), table.countryNameId(row),
+                    table.stateProvinceId(row), table.cityId(row),
+                    table.latitude(row), table.longitude(row));
+            Integer id = recordIds.get(record);
+            if (id == null) {
+                id = records.size();
+                recordIds.put(record, id);
+                records.add(record);
+            }
+            rowRecords[row] = id;
+        }
+
+        byte[][] strings = new byte[table.stringCount()][];
+        long stringBytes = 0;
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = table.string(i).getBytes(StandardCharsets.UTF_8);
+            stringBytes += strings[i].length;
+        }
+
+        // Offsets are stored as int
+        long totalSize = CityDatabase.HEADER_SIZE + v4Count * 12L + v6Count * 36L
+                + (long) records.size() * CityDatabase.RECORD_SIZE + (strings.length + 1) * 4L + stringBytes;
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("City database of " + totalSize + " bytes exceeds format limit of 2 GB");
+        }
+
+        int v4Offset = CityDatabase.HEADER_SIZE;
+        int v6Offset = v4Offset + v4Count * 12;
+        int recordOffset = v6Offset + v6Count * 36;
+        int stringIndexOffset = recordOffset + records.size() * CityDatabase.RECORD_SIZE;
+        int stringDataOffset = stringIndexOffset + (strings.length + 1) * 4;
+        int size = (int) totalSize;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            output.putInt(CityDatabase.MAGIC)
+                    .putInt(CityDatabase.VERSION)
+                    .putInt(v4Count)
+                    .putInt(v6Count)
+                    .putInt(records.size())
+                    .putInt(strings.length)
+                    .putInt(v4Offset)
+                    .putInt(v6Offset)
+                    .putInt(recordOffset)
+                    .putInt(stringIndexOffset)
+                    .putInt(stringDataOffset)
+                    .putInt(size);
+
+            for (int row = 0; row < v4Count; row++) {
+                output.putInt(table.ipv4Start(row));
+            }
+            for (int row = 0; row < v4Count; row++) {
+                output.putInt(table.ipv4End(row));
+            }
+            for (int row = 0; row < v4Count; row++) {
+                output.putInt(rowRecords[row]);
+            }
+
+            for (int row = v4Count; row < table.size(); row++) {
+                output.putLong(table.ipv6StartHigh(row));
+            }
+            for (int row = v4Count; row < table.size(); row++) {
+                output.putLong(table.ipv6StartLow(row));
+            }
+            for (int row = v4Count; row < table.size(); row++) {
+                output.putLong(table.ipv6EndHigh(row));
+            }
+            for (int row = v4Count; row < table.size(); row++) {
+                output.putLong(table.ipv6EndLow(row));
+            }
+            for (int row = v4Count; row < table.size(); row++) {
+                output.putInt(rowRecords[row]);
+            }
+
+            for (Record record : records) {
+                output.putInt(record.continentCode)
+                        .putInt(record.countryCode)
+                        .putInt(record.continentName)
+                        .putInt(record.countryName)
+                        .putInt(record.stateProvince)
+                        .putInt(record.city)
+                        .putFloat(record.latitude)
+                        .putFloat(record.longitude);
+            }
+
+            int offset = 0;
+            for (byte[] string : strings) {
+                output.putInt(offset);
+                offset += string.length;
+            }
+            output.putInt(offset);
+            for (byte[] string : strings) {
+                output.put(string);
+            }
+
+            output.flush();
+        }
+    }
+
+    /**
+     * Little-endian output through one small reusable buffer, so the file is never held in memory
+     */
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Output putInt(int value) throws IOException {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        Output putFloat(float value) throws IOException {
+            ensure(4).putFloat(value);
+            return this;
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = Math.min(bytes.length - offset, BUFFER_SIZE);
+                ensure(length).put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+    }
+
+    private record Record(int continentCode, int countryCode, int continentName, int countryName,
+                          int stateProvince, int city, float latitude, float longitude) {
+    }
+}
@@ -18,10 +18,10 @@ package io.github.secwrk.addr.city;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-import com.opencsv.CSVWriter;
+import io.github.secwrk.addr.CsvTokenizer;
+import io.github.secwrk.addr.Delta;
 import io.github.secwrk.addr.Downloader;
+import io.github.secwrk.addr.PipelinedInflater;
 import io.github.secwrk.addr.SplitFileWriter;
 
 import java.io.BufferedReader;
@@ -29,32 +29,85 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 /**
  * {@link CityProcessor} fetches DB-IP Lite City file, ISO-3316 and Geonames Country
  * and processes them to generate City file which contains Continent name and Country name.
+ * The same data is also written as binary {@link CityDatabase} file.
  */
 public final class CityProcessor {
 
     private static final String YEAR;
     private static final String MONTH;
 
-    private static final String ISO3166_URL = "https://raw.githubusercontent.com/lukes/ISO-3166-Countries-with-Regional-Codes/master/all/all.json";
-    private static final String GEONAME_URL = "http://download.geonames.org/export/dump/countryInfo.txt";
+    public static final String ISO3166_URL = "https://raw.githubusercontent.com/lukes/ISO-3166-Countries-with-Regional-Codes/master/all/all.json";
+    public static final String GEONAME_URL = "http://download.geonames.org/export/dump/countryInfo.txt";
+    public static final String CITY_URL;
 
     private static final List<Iso3166Entry> ISO_LIST = new ArrayList<>();
     private static final List<GeoNameCountryEntry> GEONAME_LIST = new ArrayList<>();
-    private static final Queue<CityEntry> CITY_QUEUE = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of rows handed between pipeline stages at once
+     */
+    private static final int BATCH_SIZE = 1_024;
+
+    /**
+     * Number of batches a pipeline stage can queue up before it blocks,
+     * this bounds memory regardless of input size.
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /**
+     * Maximum size of a City file partition in parallel mode. Partitions are small so that
+     * several of them per worker keep all workers busy without holding much of the file in memory.
+     */
+    private static final long PARTITION_BYTES = 2L * 1024 * 1024;
+
+    /**
+     * Number of partitions per worker which can be parsed ahead of the one being written
+     */
+    private static final int PARTITIONS_PER_WORKER = 2;
+
+    /**
+     * Maximum number of rows in a City CSV file
+     */
+    private static final int SHARD_ROWS = 500_000;
+
+    /**
+     * A City CSV file starts at every range whose start address hashes to 0 modulo this value,
+     * so files hold 65,536 rows on average and {@link #SHARD_ROWS} is almost never reached.
+     */
+    private static final int SHARD_KEY_SPACING = 1 << 16;
+
+    /**
+     * Maximum size of a City CSV file, stays below GitHub's 100 MB file size limit
+     */
+    private static final long SHARD_BYTES = 90L * 1024 * 1024;
 
     private static final Map<String, String> CONTINENT_MAPPING = new HashMap<>();
 
@@ -68,6 +121,7 @@ public final class CityProcessor {
             MONTH = month;
         }
         YEAR = String.valueOf(zdt.get(ChronoField.YEAR));
+        CITY_URL = "https://download.db-ip.com/free/dbip-city-lite-" + YEAR + "-" + MONTH + ".csv.gz";
 
         CONTINENT_MAPPING.put("AS", "Asia");
         CONTINENT_MAPPING.put("AF", "Africa");
@@ -81,23 +135,78 @@ public final class CityProcessor {
     public static void main(String[] args) throws Exception {
         // Download GeoName Database
         Path geoNamePath = Downloader.downloadAsString(GEONAME_URL, Path.of("GeoName.txt"));
-        readGeoNameEntry(geoNamePath);
 
         // Download ISO Database
         Path isoPath = Downloader.downloadAsString(ISO3166_URL, Path.of("Iso3316.json"));
+
+        // Download City File
+        Path cityPath = Path.of("City.csv");
+        Downloader.downloadCompressedFile(CITY_URL, cityPath);
+
+        process(geoNamePath, isoPath, cityPath);
+    }
+
+    /**
+     * Process already downloaded files, City file is parsed on all available processors
+     *
+     * @param geoNamePath Path of Geonames countryInfo file
+     * @param isoPath     Path of ISO-3166 Json file
+     * @param cityPath    Path of decompressed DB-IP Lite City file
+     */
+    public static void process(Path geoNamePath, Path isoPath, Path cityPath) throws Exception {
+        process(geoNamePath, isoPath, cityPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Process already downloaded files. City file is split into row-aligned partitions which are
+     * parsed and encoded in parallel, then written in file order, so output is the same as of
+     * a sequential run.
+     *
+     * @param geoNamePath Path of Geonames countryInfo file
+     * @param isoPath     Path of ISO-3166 Json file
+     * @param cityPath    Path of decompressed DB-IP Lite City file
+     * @param parallelism Number of partitions parsed at once, 1 parses City file sequentially
+     */
+    public static void process(Path geoNamePath, Path isoPath, Path cityPath, int parallelism) throws Exception {
+        if (parallelism <= 1) {
+            process(geoNamePath, isoPath, (countryTable, outputDirectory) -> processCityEntries(
+                    () -> CsvTokenizer.from(Files.newInputStream(cityPath)), countryTable, outputDirectory));
+        } else {
+            process(geoNamePath, isoPath, (countryTable, outputDirectory) -> processPartitions(
+                    cityPath, parallelism, countryTable, outputDirectory));
+        }
+    }
+
+    /**
+     * Process already downloaded files, City file is decompressed while it is being parsed
+     * instead of being decompressed to disk first.
+     *
+     * @param geoNamePath        Path of Geonames countryInfo file
+     * @param isoPath            Path of ISO-3166 Json file
+     * @param compressedCityPath Path of gzip compressed DB-IP Lite City file
+     */
+    public static void processCompressed(Path geoNamePath, Path isoPath, Path compressedCityPath) throws Exception {
+        process(geoNamePath, isoPath, (countryTable, outputDirectory) -> processCityEntries(
+                () -> CsvTokenizer.from(PipelinedInflater.start(Files.newInputStream(compressedCityPath))),
+                countryTable, outputDirectory));
+    }
+
+    private static void process(Path geoNamePath, Path isoPath, CityStages cityStages) throws Exception {
+        readGeoNameEntry(geoNamePath);
         try (FileReader fileReader = new FileReader(isoPath.toFile())) {
             for (JsonElement element : JsonParser.parseReader(fileReader).getAsJsonArray()) {
                 ISO_LIST.add(Iso3166Entry.from((JsonObject) element));
             }
         }
 
-        // Download City File
-        Path cityPath = Path.of("City.csv");
-        Downloader.downloadCompressedFile("https://download.db-ip.com/free/dbip-city-lite-" + YEAR + "-" + MONTH + ".csv.gz", cityPath);
-        processCityEntries(cityPath);
+        CountryTable countryTable = CountryTable.from(ISO_LIST, GEONAME_LIST, CONTINENT_MAPPING);
 
-        // Write CSV files
-        int files = writeFiles();
+        // Parse, enrich and write CSV files
+        Path outputDirectory = Delta.isIncremental() ? Delta.stagingDirectory() : Path.of("generated");
+        int files = cityStages.run(countryTable, outputDirectory);
+        if (Delta.isIncremental()) {
+            publish(outputDirectory, files);
+        }
 
         // Write File names of all CSV file in AllCity.txt
         try (FileWriter writer = new FileWriter("generated" + File.separator + "AllCity.txt")) {
@@ -108,97 +217,289 @@ public final class CityProcessor {
         }
     }
 
-    private static int writeFiles() {
-        try (SplitFileWriter writer = new SplitFileWriter("generated" + File.separator + "City.csv", 500_000)) {
-            try (CSVWriter csvWriter = new CSVWriter(writer)) {
-                CityEntry cityEntry = CITY_QUEUE.poll();
-                while (cityEntry != null) {
-                    String[] lines = {
-                            cityEntry.ipStart(),
-                            cityEntry.ipEnd(),
-                            cityEntry.continentCode(),
-                            cityEntry.countryCode(),
-                            cityEntry.continentName(),
-                            cityEntry.countryName(),
-                            cityEntry.stateProvince(),
-                            cityEntry.city(),
-                            String.valueOf(cityEntry.latitude()),
-                            String.valueOf(cityEntry.longitude())
-                    };
-                    csvWriter.writeNext(lines);
-
-                    // Pull a City Entry for next iteration
-                    cityEntry = CITY_QUEUE.poll();
-                }
-            }
+    /**
+     * Runs City file through parse and write stages. Each stage runs on its own thread
+     * and stages are joined by a bounded queue, so a slow stage blocks the one in front of it
+     * instead of buffering the whole file.
+     *
+     * @param citySource      Opens DB-IP City file
+     * @param countryTable    {@link CountryTable} used to enrich rows
+     * @param outputDirectory Directory to write CSV files and binary database to
+     * @return Number of CSV files written
+     */
+    private static int processCityEntries(Callable<CsvTokenizer> citySource, CountryTable countryTable, Path outputDirectory) throws Exception {
+        BlockingQueue<List<CityEntry>> cityQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
 
-            return writer.filesCount();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+            completionService.submit(() -> readRows(citySource, countryTable, cityQueue));
+            Future<Integer> writeFuture = completionService.submit(() -> writeFiles(cityQueue, outputDirectory));
+
+            // Wait for all stages, if any of them fails then interrupt the rest
+            for (int i = 0; i < 2; i++) {
+                completionService.take().get();
+            }
+            return writeFuture.get();
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private static void processCityEntries(Path path) throws Exception {
-        try (CSVReader csvReader = new CSVReaderBuilder(new BufferedReader(new FileReader(path.toFile()))).build()) {
-            for (String[] line : csvReader.readAll()) {
-                String ipStart = line[0];
-                String ipEnd = line[1];
-                String continentCode = line[2];
-                String countryCode = line[3];
-                String stateProvince = line[4];
-                String city = line[5];
-                float latitude = Float.parseFloat(line[6]);
-                float longitude = Float.parseFloat(line[7]);
-
-                if (countryCode.equalsIgnoreCase("ZZ")) {
-                    System.out.println("Skipping ZZ");
+    /**
+     * Tokenize and enrich City rows, rows are never decoded to {@link String} arrays
+     */
+    private static int readRows(Callable<CsvTokenizer> citySource, CountryTable countryTable,
+                                BlockingQueue<List<CityEntry>> cityQueue) throws Exception {
+        int count = 0;
+        try (CsvTokenizer tokenizer = citySource.call()) {
+            List<CityEntry> batch = new ArrayList<>(BATCH_SIZE);
+            while (tokenizer.next()) {
+                CityEntry cityEntry = enrich(countryTable, tokenizer);
+                if (cityEntry == null) {
                     continue;
                 }
+                batch.add(cityEntry);
+                count++;
+                if (batch.size() == BATCH_SIZE) {
+                    cityQueue.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                cityQueue.put(batch);
+            }
+        }
 
-                Iso3166Entry iso3166Entry = getIso(countryCode);
-                String countryName;
-                String continentName;
-
-                if (iso3166Entry == null) {
-                    System.out.println("Skipping Iso3166Entry for CountryCode: " + countryCode);
-                    System.out.println("Trying GeoNameEntry for CountryCode: " + countryCode);
-
-                    GeoNameCountryEntry geoNameEntry = getGeoName(countryCode);
-                    if (geoNameEntry == null) {
-                        System.out.println("Skipping GeoNameCountryEntry for CountryCode: " + countryCode);
-                        continue;
-                    } else {
-                        System.out.println("Successfully Retrieved CountryCode: " + countryCode);
-                        countryName = geoNameEntry.countryName();
-                        continentName = CONTINENT_MAPPING.get(geoNameEntry.continentCode().toUpperCase());
+        // Empty batch marks end of stream
+        cityQueue.put(List.of());
+        return count;
+    }
+
+    /**
+     * Parses City file partitions on a {@link ForkJoinPool} and writes them in file order.
+     * Only a bounded number of partitions is parsed ahead of the one being written.
+     *
+     * @param cityPath        Path of decompressed DB-IP City file
+     * @param parallelism     Number of workers
+     * @param countryTable    {@link CountryTable} used to enrich rows
+     * @param outputDirectory Directory to write CSV files and binary database to
+     * @return Number of CSV files written
+     */
+    private static int processPartitions(Path cityPath, int parallelism, CountryTable countryTable,
+                                         Path outputDirectory) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(cityPath, StandardOpenOption.READ)) {
+            List<Long> bounds = new ArrayList<>();
+            long size = channel.size();
+            bounds.add(0L);
+            for (long start = 0; start < size; ) {
+                start = CsvTokenizer.rowStart(channel, Math.min(size, start + PARTITION_BYTES));
+                bounds.add(start);
+            }
+
+            CityDatabaseWriter databaseWriter = new CityDatabaseWriter();
+            try (SplitFileWriter writer = new SplitFileWriter(outputDirectory.resolve("City.csv").toString(),
+                    SHARD_ROWS, SHARD_BYTES)) {
+                CityCoalescer coalescer = new CityCoalescer();
+                CityCsvEncoder encoder = new CityCsvEncoder();
+                long ranges = 0;
+                // One tokenizer per worker, its read buffer and intern table are reused for every partition
+                ThreadLocal<CsvTokenizer> tokenizers = ThreadLocal.withInitial(() -> CsvTokenizer.open(channel, 0, 0));
+                Deque<ForkJoinTask<CityPartition>> pending = new ArrayDeque<>();
+                int partitions = bounds.size() - 1;
+                int submitted = 0;
+                for (int written = 0; written < partitions; written++) {
+                    while (submitted < partitions && pending.size() < parallelism * PARTITIONS_PER_WORKER) {
+                        long start = bounds.get(submitted);
+                        long end = bounds.get(++submitted);
+                        pending.add(pool.submit(() -> parsePartition(tokenizers.get(), start, end, countryTable)));
+                    }
+
+                    // Partitions are coalesced already, only ranges across partition boundaries are merged here
+                    CityPartition partition = pending.remove().get();
+                    ranges += partition.ranges();
+                    List<CityEntry> entries = partition.entries();
+                    for (int i = 0; i < entries.size(); i++) {
+                        CityEntry completed = coalescer.add(entries.get(i));
+                        if (completed == null) {
+                            continue;
+                        }
+                        databaseWriter.add(completed);
+                        startShardAt(writer, completed);
+                        if (i > 0 && completed == entries.get(i - 1)) {
+                            // Unchanged entry of this partition, row was encoded by worker
+                            int offset = i > 1 ? partition.rowEnds()[i - 2] : 0;
+                            writer.writeRow(partition.rows(), offset, partition.rowEnds()[i - 1] - offset);
+                        } else {
+                            writer.writeRow(encoder.buffer(), 0, encoder.encode(completed));
+                        }
                     }
-                } else {
-                    countryName = iso3166Entry.name();
-                    continentName = iso3166Entry.region();
                 }
+                CityEntry last = coalescer.flush();
+                if (last != null) {
+                    databaseWriter.add(last);
+                    startShardAt(writer, last);
+                    writer.writeRow(encoder.buffer(), 0, encoder.encode(last));
+                }
+                report(ranges, coalescer.outputCount());
+
+                writeDatabase(databaseWriter, outputDirectory);
+
+                return writer.filesCount();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse, enrich, coalesce and encode rows of one City file partition. Encoded rows are
+     * handed to the writer with the partition, so unlike the tokenizer they are not reused.
+     *
+     * @param tokenizer {@link CsvTokenizer} of City file owned by calling worker
+     */
+    private static CityPartition parsePartition(CsvTokenizer tokenizer, long start, long end,
+                                                CountryTable countryTable) throws IOException {
+        CityCoalescer coalescer = new CityCoalescer();
+        PartitionBuilder builder = new PartitionBuilder((int) (end - start) * 2);
 
-                CITY_QUEUE.add(CityEntry.from(ipStart, ipEnd, continentCode, countryCode, stateProvince, city, latitude, longitude,
-                        countryName, continentName));
+        tokenizer.reset(start, end);
+        while (tokenizer.next()) {
+            CityEntry cityEntry = enrich(countryTable, tokenizer);
+            if (cityEntry != null) {
+                builder.add(coalescer.add(cityEntry));
             }
         }
+        builder.add(coalescer.flush());
+        return builder.build(coalescer.inputCount());
     }
 
-    private static Iso3166Entry getIso(String countryCode) {
-        for (Iso3166Entry iso3166Entry : ISO_LIST) {
-            if (iso3166Entry.alpha2().equalsIgnoreCase(countryCode)) {
-                return iso3166Entry;
+    private static int writeFiles(BlockingQueue<List<CityEntry>> cityQueue, Path outputDirectory) throws Exception {
+        CityDatabaseWriter databaseWriter = new CityDatabaseWriter();
+        try (SplitFileWriter writer = new SplitFileWriter(outputDirectory.resolve("City.csv").toString(),
+                SHARD_ROWS, SHARD_BYTES)) {
+            CityCsvEncoder encoder = new CityCsvEncoder();
+            CityCoalescer coalescer = new CityCoalescer();
+            List<CityEntry> batch;
+            while (!(batch = cityQueue.take()).isEmpty()) {
+                for (CityEntry cityEntry : batch) {
+                    CityEntry completed = coalescer.add(cityEntry);
+                    if (completed != null) {
+                        databaseWriter.add(completed);
+                        startShardAt(writer, completed);
+                        writer.writeRow(encoder.buffer(), 0, encoder.encode(completed));
+                    }
+                }
+            }
+            CityEntry last = coalescer.flush();
+            if (last != null) {
+                databaseWriter.add(last);
+                startShardAt(writer, last);
+                writer.writeRow(encoder.buffer(), 0, encoder.encode(last));
             }
+            report(coalescer.inputCount(), coalescer.outputCount());
+
+            writeDatabase(databaseWriter, outputDirectory);
+
+            return writer.filesCount();
+        }
+    }
+
+    /**
+     * Shard boundaries are picked by start address instead of row position, so inserting or
+     * removing a range only changes the file holding it, not every file after it. Only a range
+     * which becomes or stops being a boundary moves the files after it.
+     */
+    private static void startShardAt(SplitFileWriter writer, CityEntry cityEntry) throws IOException {
+        int hash = cityEntry.ipStart().hashCode() * 0x9E3779B1;
+        if (((hash ^ hash >>> 16) & (SHARD_KEY_SPACING - 1)) == 0) {
+            writer.startShard();
         }
-        return null;
     }
 
-    private static GeoNameCountryEntry getGeoName(String countryCode) {
-        for (GeoNameCountryEntry geonameEntry : GEONAME_LIST) {
-            if (geonameEntry.countryCode().equalsIgnoreCase(countryCode)) {
-                return geonameEntry;
+    /**
+     * Write binary database next to CSV files. It is published as a release asset instead of being
+     * committed, as it can be larger than GitHub's 100 MB file size limit.
+     */
+    private static void writeDatabase(CityDatabaseWriter databaseWriter, Path outputDirectory) throws IOException {
+        Path path = outputDirectory.resolve("City.bin");
+        databaseWriter.write(path);
+        System.out.println("City.bin: " + Files.size(path) + " bytes");
+    }
+
+    private static void report(long ranges, long written) {
+        System.out.println(String.format("City ranges coalesced: %d -> %d (%.2fx)",
+                ranges, written, written == 0 ? 1.0 : (double) ranges / written));
+    }
+
+    /**
+     * Writes City.delta.csv against previous CSV files in "generated", then moves staged files
+     * which changed into "generated". Unchanged files are left untouched.
+     *
+     * @param stagingDirectory Directory new CSV files and binary database were written to
+     * @param files            Number of new CSV files
+     */
+    private static void publish(Path stagingDirectory, int files) throws IOException {
+        Path generated = Path.of("generated");
+
+        List<Path> previousShards = new ArrayList<>();
+        for (int i = 1; Files.exists(generated.resolve("City.csv-" + i)); i++) {
+            previousShards.add(generated.resolve("City.csv-" + i));
+        }
+        List<Path> nextShards = new ArrayList<>(files);
+        for (int i = 1; i <= files; i++) {
+            nextShards.add(stagingDirectory.resolve("City.csv-" + i));
+        }
+
+        Delta.Stats stats = Delta.write(previousShards, nextShards, generated.resolve("City.delta.csv"));
+        System.out.println("City delta: " + stats);
+
+        int rewritten = 0;
+        for (int i = 1; i <= files; i++) {
+            if (Delta.replaceIfChanged(nextShards.get(i - 1), generated.resolve("City.csv-" + i))) {
+                rewritten++;
             }
         }
-        return null;
+        // Remove shards which are no longer part of snapshot
+        for (int i = files; i < previousShards.size(); i++) {
+            Files.delete(previousShards.get(i));
+        }
+        Delta.replaceIfChanged(stagingDirectory.resolve("City.bin"), generated.resolve("City.bin"));
+
+        System.out.println("Rewritten City shards: " + rewritten + "/" + files);
+    }
+
+    /**
+     * Converts a DB-IP City row into {@link CityEntry} with Country name and Continent name.
+     *
+     * @param countryTable {@link CountryTable} instance
+     * @param row          {@link CsvTokenizer} positioned at DB-IP City row
+     * @return {@link CityEntry} instance, or {@code null} if row should be skipped
+     */
+    private static CityEntry enrich(CountryTable countryTable, CsvTokenizer row) {
+        if (row.fieldCount() < 8) {
+            throw new IllegalArgumentException("Invalid City row with " + row.fieldCount() + " fields");
+        }
+        String continentCode = row.intern(2);
+        String countryCode = row.intern(3);
+        float latitude = row.parseFloat(6);
+        float longitude = row.parseFloat(7);
+
+        if (countryCode.equalsIgnoreCase("ZZ")) {
+            System.out.println("Skipping ZZ");
+            return null;
+        }
+
+        String countryName = countryTable.countryName(countryCode);
+        if (countryName == null) {
+            System.out.println("Skipping CountryCode: " + countryCode);
+            return null;
+        }
+        String continentName = countryTable.continentName(countryCode);
+
+        return CityEntry.from(row.string(0), row.string(1), continentCode, countryCode, row.intern(4), row.string(5),
+                latitude, longitude, countryName, continentName);
     }
 
     private static void readGeoNameEntry(Path path) throws IOException {
@@ -213,4 +514,57 @@ public final class CityProcessor {
             }
         }
     }
+
+    /**
+     * Writes City CSV files and binary database for a {@link CountryTable}
+     */
+    @FunctionalInterface
+    private interface CityStages {
+        int run(CountryTable countryTable, Path outputDirectory) throws Exception;
+    }
+
+    /**
+     * Parsed City file partition, {@code rowEnds[i]} is end of encoded CSV row of {@code entries[i]} in {@code rows}.
+     * {@code ranges} is number of ranges before coalescing.
+     */
+    private record CityPartition(List<CityEntry> entries, byte[] rows, int[] rowEnds, long ranges) {
+    }
+
+    /**
+     * Collects coalesced entries of a partition and their encoded CSV rows
+     */
+    private static final class PartitionBuilder {
+        private final CityCsvEncoder encoder = new CityCsvEncoder();
+        private final List<CityEntry> entries = new ArrayList<>();
+        private byte[] rows;
+        private int[] rowEnds = new int[1024];
+        private int length;
+
+        private PartitionBuilder(int capacity) {
+            rows = new byte[capacity];
+        }
+
+        private void add(CityEntry cityEntry) {
+            if (cityEntry == null) {
+                return;
+            }
+
+            int rowLength = encoder.encode(cityEntry);
+            if (length + rowLength > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, length + rowLength));
+            }
+            System.arraycopy(encoder.buffer(), 0, rows, length, rowLength);
+            length += rowLength;
+
+            if (entries.size() == rowEnds.length) {
+                rowEnds = Arrays.copyOf(rowEnds, rowEnds.length * 2);
+            }
+            rowEnds[entries.size()] = length;
+            entries.add(cityEntry);
+        }
+
+        private CityPartition build(long ranges) {
+            return new CityPartition(entries, rows, rowEnds, ranges);
+        }
+    }
 }
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.RowOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CityTable} is a compact, column oriented store of City ranges which
+ * {@link CityDatabaseWriter} collects before writing City.bin. Lookups are answered by
+ * {@link CityDatabase} from the written file.
+ * <p>
+ * Range bounds are kept as primitive numbers, coordinates as {@code float} and every text
+ * attribute as id into one shared dictionary, so a row takes a few dozen bytes instead of a
+ * {@link CityEntry} with ten references.
+ * <p>
+ * Rows are sorted by address: IPv4 rows come first, followed by IPv6 rows.
+ */
+public final class CityTable {
+
+    private final int v4Count;
+    private final int[] v4Start;
+    private final int[] v4End;
+
+    private final long[] v6StartHigh;
+    private final long[] v6StartLow;
+    private final long[] v6EndHigh;
+    private final long[] v6EndLow;
+
+    private final int[][] ids;
+    private final float[] latitude;
+    private final float[] longitude;
+
+    private final String[] strings;
+
+    private CityTable(int[] v4Start, int[] v4End, long[] v6StartHigh, long[] v6StartLow, long[] v6EndHigh,
+                      long[] v6EndLow, int[][] ids, float[] latitude, float[] longitude, String[] strings) {
+        this.v4Count = v4Start.length;
+        this.v4Start = v4Start;
+        this.v4End = v4End;
+        this.v6StartHigh = v6StartHigh;
+        this.v6StartLow = v6StartLow;
+        this.v6EndHigh = v6EndHigh;
+        this.v6EndLow = v6EndLow;
+        this.ids = ids;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.strings = strings;
+    }
+
+    /**
+     * Create a new {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of rows
+     */
+    public int size() {
+        return latitude.length;
+    }
+
+    /**
+     * Number of IPv4 rows. IPv4 rows occupy indexes {@code [0, ipv4Count())}.
+     */
+    public int ipv4Count() {
+        return v4Count;
+    }
+
+    /**
+     * Start of IPv4 range of a row as raw address bits
+     */
+    public int ipv4Start(int row) {
+        return v4Start[row];
+    }
+
+    /**
+     * End of IPv4 range of a row as raw address bits
+     */
+    public int ipv4End(int row) {
+        return v4End[row];
+    }
+
+    /**
+     * High 64 bits of start of IPv6 range of a row
+     */
+    public long ipv6StartHigh(int row) {
+        return v6StartHigh[row - v4Count];
+    }
+
+    /**
+     * Low 64 bits of start of IPv6 range of a row
+     */
+    public long ipv6StartLow(int row) {
+        return v6StartLow[row - v4Count];
+    }
+
+    /**
+     * High 64 bits of end of IPv6 range of a row
+     */
+    public long ipv6EndHigh(int row) {
+        return v6EndHigh[row - v4Count];
+    }
+
+    /**
+     * Low 64 bits of end of IPv6 range of a row
+     */
+    public long ipv6EndLow(int row) {
+        return v6EndLow[row - v4Count];
+    }
+
+    /**
+     * Number of distinct strings in dictionary
+     */
+    public int stringCount() {
+        return strings.length;
+    }
+
+    /**
+     * String of a dictionary id
+     */
+    public String string(int id) {
+        return strings[id];
+    }
+
+    /**
+     * Dictionary id of continent code of a row
+     */
+    public int continentCodeId(int row) {
+        return ids[Builder.CONTINENT_CODE][row];
+    }
+
+    /**
+     * Dictionary id of country code of a row
+     */
+    public int countryCodeId(int row) {
+        return ids[Builder.COUNTRY_CODE][row];
+    }
+
+    /**
+     * Dictionary id of continent name of a row
+     */
+    public int continentNameId(int row) {
+        return ids[Builder.CONTINENT_NAME][row];
+    }
+
+    /**
+     * Dictionary id of country name of a row
+     */
+    public int countryNameId(int row) {
+        return ids[Builder.COUNTRY_NAME][row];
+    }
+
+    /**
+     * Dictionary id of state/province of a row
+     */
+    public int stateProvinceId(int row) {
+        return ids[Builder.STATE_PROVINCE][row];
+    }
+
+    /**
+     * Dictionary id of city of a row
+     */
+    public int cityId(int row) {
+        return ids[Builder.CITY][row];
+    }
+
+    /**
+     * Latitude of a row
+     */
+    public float latitude(int row) {
+        return latitude[row];
+    }
+
+    /**
+     * Longitude of a row
+     */
+    public float longitude(int row) {
+        return longitude[row];
+    }
+
+    /**
+     * Builder for {@link CityTable}. Rows can be added in any order.
+     * <p>
+     * Every attribute is kept in its own column in order of insertion. {@link #build()} sorts
+     * one column at a time and releases it, so builder and table are never both held in full.
+     */
+    public static final class Builder {
+
+        private static final int CONTINENT_CODE = 0;
+        private static final int COUNTRY_CODE = 1;
+        private static final int CONTINENT_NAME = 2;
+        private static final int COUNTRY_NAME = 3;
+        private static final int STATE_PROVINCE = 4;
+        private static final int CITY = 5;
+        private static final int ID_COLUMNS = 6;
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final long[] scratch = new long[2];
+
+        // Attributes of all rows, in order of insertion
+        private int size;
+        private int[][] ids = new int[ID_COLUMNS][INITIAL_CAPACITY];
+        private float[] latitude = new float[INITIAL_CAPACITY];
+        private float[] longitude = new float[INITIAL_CAPACITY];
+
+        // Range bounds, with row holding attributes of range
+        private int v4Count;
+        private int[] v4Row = new int[INITIAL_CAPACITY];
+        private int[] v4Start = new int[INITIAL_CAPACITY];
+        private int[] v4End = new int[INITIAL_CAPACITY];
+
+        private int v6Count;
+        private int[] v6Row = new int[INITIAL_CAPACITY];
+        private long[] v6StartHigh = new long[INITIAL_CAPACITY];
+        private long[] v6StartLow = new long[INITIAL_CAPACITY];
+        private long[] v6EndHigh = new long[INITIAL_CAPACITY];
+        private long[] v6EndLow = new long[INITIAL_CAPACITY];
+
+        private boolean built;
+
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private Builder() {
+            // Use CityTable#builder()
+        }
+
+        /**
+         * Add a {@link CityEntry}
+         *
+         * @param cityEntry {@link CityEntry} instance
+         * @return this {@link Builder}
+         * @throws IllegalArgumentException If IP range is invalid
+         * @throws IllegalStateException    If {@link CityTable} was already built
+         */
+        public Builder add(CityEntry cityEntry) {
+            if (built) {
+                throw new IllegalStateException("CityTable was already built");
+            }
+
+            // Ids are assigned in this order, which decides order of strings in dictionary
+            int continentCode = id(cityEntry.continentCode());
+            int countryCode = id(cityEntry.countryCode());
+            int continentName = id(cityEntry.continentName());
+            int countryName = id(cityEntry.countryName());
+            int stateProvince = id(cityEntry.stateProvince());
+            int city = id(cityEntry.city());
+
+            long start = IPParser.parseIPv4(cityEntry.ipStart());
+            long end = IPParser.parseIPv4(cityEntry.ipEnd());
+            if (start >= 0 && end >= 0) {
+                if (v4Count == v4Row.length) {
+                    int capacity = v4Count * 2;
+                    v4Row = Arrays.copyOf(v4Row, capacity);
+                    v4Start = Arrays.copyOf(v4Start, capacity);
+                    v4End = Arrays.copyOf(v4End, capacity);
+                }
+                v4Row[v4Count] = size;
+                v4Start[v4Count] = (int) start;
+                v4End[v4Count] = (int) end;
+                v4Count++;
+            } else {
+                if (!IPParser.parseIPv6(cityEntry.ipStart(), scratch)) {
+                    throw new IllegalArgumentException("Invalid IP Address Range: " + cityEntry.ipStart());
+                }
+                long startHigh = scratch[0];
+                long startLow = scratch[1];
+                if (!IPParser.parseIPv6(cityEntry.ipEnd(), scratch)) {
+                    throw new IllegalArgumentException("Invalid IP Address Range: " + cityEntry.ipEnd());
+                }
+
+                if (v6Count == v6Row.length) {
+                    int capacity = v6Count * 2;
+                    v6Row = Arrays.copyOf(v6Row, capacity);
+                    v6StartHigh = Arrays.copyOf(v6StartHigh, capacity);
+                    v6StartLow = Arrays.copyOf(v6StartLow, capacity);
+                    v6EndHigh = Arrays.copyOf(v6EndHigh, capacity);
+                    v6EndLow = Arrays.copyOf(v6EndLow, capacity);
+                }
+                v6Row[v6Count] = size;
+                v6StartHigh[v6Count] = startHigh;
+                v6StartLow[v6Count] = startLow;
+                v6EndHigh[v6Count] = scratch[0];
+                v6EndLow[v6Count] = scratch[1];
+                v6Count++;
+            }
+
+            if (size == latitude.length) {
+                int capacity = size * 2;
+                for (int column = 0; column < ID_COLUMNS; column++) {
+                    ids[column] = Arrays.copyOf(ids[column], capacity);
+                }
+                latitude = Arrays.copyOf(latitude, capacity);
+                longitude = Arrays.copyOf(longitude, capacity);
+            }
+            ids[CONTINENT_CODE][size] = continentCode;
+            ids[COUNTRY_CODE][size] = countryCode;
+            ids[CONTINENT_NAME][size] = continentName;
+            ids[COUNTRY_NAME][size] = countryName;
+            ids[STATE_PROVINCE][size] = stateProvince;
+            ids[CITY][size] = city;
+            latitude[size] = cityEntry.latitude();
+            longitude[size] = cityEntry.longitude();
+            size++;
+            return this;
+        }
+
+        /**
+         * Build {@link CityTable}. Rows are sorted by start of range.
+         * Builder can't be used after this.
+         *
+         * @throws IllegalStateException If {@link CityTable} was already built
+         */
+        public CityTable build() {
+            if (built) {
+                throw new IllegalStateException("CityTable was already built");
+            }
+            built = true;
+
+            int[] order4 = RowOrder.sorted(v4Count, (a, b) -> Integer.compareUnsigned(v4Start[a], v4Start[b]));
+            int[] order6 = RowOrder.sorted(v6Count, (a, b) -> {
+                int cmp = Long.compareUnsigned(v6StartHigh[a], v6StartHigh[b]);
+                return cmp != 0 ? cmp : Long.compareUnsigned(v6StartLow[a], v6StartLow[b]);
+            });
+
+            // Each column is sorted into a new array and released right after
+            int[] start4 = sorted(v4Start, order4);
+            v4Start = null;
+            int[] end4 = sorted(v4End, order4);
+            v4End = null;
+            long[] startHigh6 = sorted(v6StartHigh, order6);
+            v6StartHigh = null;
+            long[] startLow6 = sorted(v6StartLow, order6);
+            v6StartLow = null;
+            long[] endHigh6 = sorted(v6EndHigh, order6);
+            v6EndHigh = null;
+            long[] endLow6 = sorted(v6EndLow, order6);
+            v6EndLow = null;
+
+            // Attributes of a table row are at row rows[row] of builder
+            int[] rows = new int[size];
+            for (int i = 0; i < v4Count; i++) {
+                rows[i] = v4Row[order4[i]];
+            }
+            for (int i = 0; i < v6Count; i++) {
+                rows[v4Count + i] = v6Row[order6[i]];
+            }
+            v4Row = null;
+            v6Row = null;
+
+            int[][] idColumns = new int[ID_COLUMNS][];
+            for (int column = 0; column < ID_COLUMNS; column++) {
+                idColumns[column] = sorted(ids[column], rows);
+                ids[column] = null;
+            }
+            float[] latitudes = sorted(latitude, rows);
+            latitude = null;
+            float[] longitudes = sorted(longitude, rows);
+            longitude = null;
+
+            stringIds.clear();
+            return new CityTable(start4, end4, startHigh6, startLow6, endHigh6, endLow6,
+                    idColumns, latitudes, longitudes, strings.toArray(String[]::new));
+        }
+
+        private static int[] sorted(int[] column, int[] order) {
+            int[] values = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                values[i] = column[order[i]];
+            }
+            return values;
+        }
+
+        private static long[] sorted(long[] column, int[] order) {
+            long[] values = new long[order.length];
+            for (int i = 0; i < order.length; i++) {
+                values[i] = column[order[i]];
+            }
+            return values;
+        }
+
+        private static float[] sorted(float[] column, int[] order) {
+            float[] values = new float[order.length];
+            for (int i = 0; i < order.length; i++) {
+                values[i] = column[order[i]];
+            }
+            return values;
+        }
+
+        private int id(String value) {
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(value, id);
+                strings.add(value);
+            }
+            return id;
+        }
+    }
+}
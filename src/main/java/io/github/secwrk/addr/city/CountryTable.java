@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.city;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link CountryTable} resolves Country name and Continent name of an ISO 3166 alpha-2
+ * country code in constant time.
+ * <p>
+ * Names are kept in flat arrays indexed by the two letters of the code, so a lookup is a
+ * single array read. ISO 3166 entries take precedence, Geonames entries are used for codes
+ * which are not in ISO 3166. Returned names are interned and shared by all callers.
+ */
+public final class CountryTable {
+
+    private static final int LETTERS = 26;
+
+    private final String[] countryNames = new String[LETTERS * LETTERS];
+    private final String[] continentNames = new String[LETTERS * LETTERS];
+
+    private CountryTable() {
+        // Use CountryTable#from
+    }
+
+    /**
+     * Create a new {@link CountryTable} instance
+     *
+     * @param isoList           {@link List} of {@link Iso3166Entry}
+     * @param geoNameList       {@link List} of {@link GeoNameCountryEntry}
+     * @param continentMapping  Continent code to Continent name mapping, used for Geonames entries
+     * @return {@link CountryTable} instance
+     */
+    public static CountryTable from(List<Iso3166Entry> isoList, List<GeoNameCountryEntry> geoNameList,
+                                    Map<String, String> continentMapping) {
+        CountryTable table = new CountryTable();
+
+        // First match wins, same as a linear scan over the lists would
+        for (Iso3166Entry iso3166Entry : isoList) {
+            int index = index(iso3166Entry.alpha2());
+            if (index >= 0 && table.countryNames[index] == null) {
+                table.countryNames[index] = intern(iso3166Entry.name());
+                table.continentNames[index] = intern(iso3166Entry.region());
+            }
+        }
+
+        for (GeoNameCountryEntry geoNameEntry : geoNameList) {
+            int index = index(geoNameEntry.countryCode());
+            if (index >= 0 && table.countryNames[index] == null) {
+                table.countryNames[index] = intern(geoNameEntry.countryName());
+                table.continentNames[index] = intern(continentMapping.get(geoNameEntry.continentCode().toUpperCase()));
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Index of a country code in this table
+     *
+     * @param countryCode ISO 3166 alpha-2 country code, case-insensitive
+     * @return Index, or -1 if country code is not two ASCII letters
+     */
+    public static int index(CharSequence countryCode) {
+        if (countryCode.length() != 2) {
+            return -1;
+        }
+        int first = (countryCode.charAt(0) | 0x20) - 'a';
+        int second = (countryCode.charAt(1) | 0x20) - 'a';
+        if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS) {
+            return -1;
+        }
+        return first * LETTERS + second;
+    }
+
+    /**
+     * Country name of a country code
+     *
+     * @param countryCode ISO 3166 alpha-2 country code, case-insensitive
+     * @return Country name, or {@code null} if country is unknown
+     */
+    public String countryName(CharSequence countryCode) {
+        int index = index(countryCode);
+        return index < 0 ? null : countryNames[index];
+    }
+
+    /**
+     * Continent name of a country code
+     *
+     * @param countryCode ISO 3166 alpha-2 country code, case-insensitive
+     * @return Continent name, or {@code null} if country is unknown
+     */
+    public String continentName(CharSequence countryCode) {
+        int index = index(countryCode);
+        return index < 0 ? null : continentNames[index];
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+}
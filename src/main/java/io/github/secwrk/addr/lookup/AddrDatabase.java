@@ -0,0 +1,425 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.lookup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import io.github.secwrk.addr.IPParser;
+import io.github.secwrk.addr.asn.ASNEntry;
+import io.github.secwrk.addr.asn.ASNRangeIndex;
+import io.github.secwrk.addr.asn.ASNTable;
+import io.github.secwrk.addr.asn.CloudIPv4Set;
+import io.github.secwrk.addr.city.CityDatabase;
+import io.github.secwrk.addr.city.CityEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * {@link AddrDatabase} answers IP address lookups against the generated City, ASN
+ * and Cloud ASN data.
+ * <p>
+ * All data is immutable after loading, so lookups are lock-free and safe to call from
+ * any number of threads. Apart from the returned result, a lookup of an IPv4 address does
+ * not allocate. {@link ASNEntry} results are created once per range and reused.
+ * <p>
+ * Expected files in data directory:
+ * <ul>
+ *     <li>City.bin - written by {@link io.github.secwrk.addr.city.CityProcessor}</li>
+ *     <li>ASN.csv - written by {@link io.github.secwrk.addr.asn.ASNProcessor}</li>
+ *     <li>CloudASN.json - written by {@link io.github.secwrk.addr.asn.CloudASNFilteredProcessor}</li>
+ * </ul>
+ * Cloud checks are answered by ASN of the address in ASN.csv being one of CloudASN.json. For IPv4,
+ * matching ranges are collected into a {@link CloudIPv4Set} when loading, so no ASN lookup is needed.
+ * IPv4 ranges are found by binary search by default, {@link Engine#DIRECT} selects
+ * {@link IPv4DirectTable} lookups instead, which trade memory for fewer memory reads.
+ * <p>
+ * City and ASN results can optionally be kept in a {@link LookupCache} of a given capacity,
+ * which pays off when a small set of addresses makes up most lookups.
+ */
+public final class AddrDatabase {
+
+    /**
+     * IPv4 lookup engine
+     */
+    public enum Engine {
+        /**
+         * Binary search over sorted ranges, no memory beyond loaded data
+         */
+        BINARY_SEARCH,
+
+        /**
+         * {@link IPv4DirectTable} for City and ASN ranges, at most two memory reads per lookup
+         */
+        DIRECT
+    }
+
+    private static final ThreadLocal<long[]> IPV6_SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final CityDatabase cityDatabase;
+    private final ASNTable asnTable;
+    private final ASNRangeIndex asnIndex;
+    private final long[] cloudAsn;
+    private final CloudIPv4Set cloudIPv4;
+
+    /**
+     * IPv4 City and ASN tables, {@code null} unless {@link Engine#DIRECT} is selected
+     */
+    private final IPv4DirectTable cityIPv4;
+    private final IPv4DirectTable asnIPv4;
+
+    /**
+     * {@link ASNEntry} views of {@link #asnTable} rows, filled lazily. Racing threads create
+     * equal immutable instances, so no locking is needed.
+     */
+    private final ASNEntry[] asnEntries;
+
+    /**
+     * City and ASN result caches, {@code null} unless a cache capacity is given
+     */
+    private final LookupCache<CityEntry> cityCache;
+    private final LookupCache<ASNEntry> asnCache;
+
+    private AddrDatabase(CityDatabase cityDatabase, ASNTable asnTable, long[] cloudAsn, Engine engine,
+                         int cacheCapacity) {
+        this.cityDatabase = cityDatabase;
+        this.asnTable = asnTable;
+        this.asnIndex = ASNRangeIndex.from(asnTable);
+        this.cloudAsn = cloudAsn;
+        this.asnEntries = new ASNEntry[asnTable.size()];
+
+        // Same ranges an ASN lookup would report as cloud
+        CloudIPv4Set.Builder cloudBuilder = CloudIPv4Set.builder();
+        for (int row = 0; row < asnTable.ipv4Count(); row++) {
+            if (isCloudAsn(asnTable.asn(row))) {
+                cloudBuilder.add(asnTable.ipv4Start(row), asnTable.ipv4End(row));
+            }
+        }
+        this.cloudIPv4 = cloudBuilder.build();
+
+        if (engine == Engine.DIRECT) {
+            IPv4DirectTable.Builder cityBuilder = IPv4DirectTable.builder();
+            for (int range = 0; range < cityDatabase.ipv4Count(); range++) {
+                cityBuilder.add(cityDatabase.ipv4Start(range), cityDatabase.ipv4End(range), range);
+            }
+            cityIPv4 = cityBuilder.build();
+
+            IPv4DirectTable.Builder asnBuilder = IPv4DirectTable.builder();
+            for (int row = 0; row < asnTable.ipv4Count(); row++) {
+                asnBuilder.add(asnTable.ipv4Start(row), asnTable.ipv4End(row), row);
+            }
+            asnIPv4 = asnBuilder.build();
+        } else {
+            cityIPv4 = null;
+            asnIPv4 = null;
+        }
+
+        if (cacheCapacity > 0) {
+            cityCache = LookupCache.create(cacheCapacity, this::findCity, this::findCity);
+            asnCache = LookupCache.create(cacheCapacity, this::findAsn, this::findAsn);
+        } else {
+            cityCache = null;
+            asnCache = null;
+        }
+    }
+
+    /**
+     * Load {@link AddrDatabase} from a data directory, usually "generated", with binary search lookups.
+     *
+     * @param directory Data directory
+     * @return {@link AddrDatabase} instance
+     * @throws IOException If a file is missing or cannot be read
+     */
+    public static AddrDatabase load(Path directory) throws IOException {
+        return load(directory, Engine.BINARY_SEARCH);
+    }
+
+    /**
+     * Load {@link AddrDatabase} from a data directory, usually "generated".
+     *
+     * @param directory Data directory
+     * @param engine    IPv4 lookup {@link Engine}
+     * @return {@link AddrDatabase} instance
+     * @throws IOException If a file is missing or cannot be read
+     */
+    public static AddrDatabase load(Path directory, Engine engine) throws IOException {
+        return load(directory, engine, 0);
+    }
+
+    /**
+     * Load {@link AddrDatabase} from a data directory, usually "generated".
+     *
+     * @param directory     Data directory
+     * @param engine        IPv4 lookup {@link Engine}
+     * @param cacheCapacity Capacity of City and ASN {@link LookupCache}, each. 0 disables caching.
+     * @return {@link AddrDatabase} instance
+     * @throws IOException If a file is missing or cannot be read
+     */
+    public static AddrDatabase load(Path directory, Engine engine, int cacheCapacity) throws IOException {
+        CityDatabase cityDatabase = CityDatabase.open(directory.resolve("City.bin"));
+        ASNTable asnTable = readAsnTable(directory.resolve("ASN.csv"));
+        long[] cloudAsn = readCloudAsn(directory.resolve("CloudASN.json"));
+        return new AddrDatabase(cityDatabase, asnTable, cloudAsn, engine, cacheCapacity);
+    }
+
+    /**
+     * Lookup {@link CityEntry} for an IP address
+     *
+     * @param ip IPv4 or IPv6 address text
+     * @return {@link CityEntry} instance, or {@code null} if not found or address is invalid
+     */
+    public CityEntry lookupCity(String ip) {
+        long ipv4 = IPParser.parseIPv4(ip);
+        if (ipv4 >= 0) {
+            return lookupCity((int) ipv4);
+        }
+        long[] ipv6 = IPV6_SCRATCH.get();
+        return IPParser.parseIPv6(ip, ipv6) ? lookupCity(ipv6[0], ipv6[1]) : null;
+    }
+
+    /**
+     * Lookup {@link CityEntry} for an IP address
+     *
+     * @param address {@link InetAddress} instance
+     * @return {@link CityEntry} instance, or {@code null} if not found
+     */
+    public CityEntry lookupCity(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return lookupCity(ipv4(bytes));
+        }
+        return lookupCity(high(bytes), low(bytes));
+    }
+
+    /**
+     * Lookup {@link CityEntry} for an IPv4 address
+     *
+     * @param ipv4 Raw address bits
+     * @return {@link CityEntry} instance, or {@code null} if not found
+     */
+    public CityEntry lookupCity(int ipv4) {
+        return cityCache != null ? cityCache.get(ipv4) : findCity(ipv4);
+    }
+
+    private CityEntry findCity(int ipv4) {
+        int range = cityIPv4 != null ? cityIPv4.find(ipv4) : cityDatabase.findIPv4(ipv4);
+        return range < 0 ? null : cityDatabase.ipv4Entry(range);
+    }
+
+    /**
+     * Lookup {@link CityEntry} for an IPv6 address
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return {@link CityEntry} instance, or {@code null} if not found
+     */
+    public CityEntry lookupCity(long high, long low) {
+        return cityCache != null ? cityCache.get(high, low) : findCity(high, low);
+    }
+
+    private CityEntry findCity(long high, long low) {
+        int range = cityDatabase.findIPv6(high, low);
+        return range < 0 ? null : cityDatabase.ipv6Entry(range);
+    }
+
+    /**
+     * Lookup {@link ASNEntry} for an IP address
+     *
+     * @param ip IPv4 or IPv6 address text
+     * @return {@link ASNEntry} instance, or {@code null} if not found or address is invalid
+     */
+    public ASNEntry lookupAsn(String ip) {
+        long ipv4 = IPParser.parseIPv4(ip);
+        if (ipv4 >= 0) {
+            return lookupAsn((int) ipv4);
+        }
+        long[] ipv6 = IPV6_SCRATCH.get();
+        return IPParser.parseIPv6(ip, ipv6) ? lookupAsn(ipv6[0], ipv6[1]) : null;
+    }
+
+    /**
+     * Lookup {@link ASNEntry} for an IP address
+     *
+     * @param address {@link InetAddress} instance
+     * @return {@link ASNEntry} instance, or {@code null} if not found
+     */
+    public ASNEntry lookupAsn(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return lookupAsn(ipv4(bytes));
+        }
+        return lookupAsn(high(bytes), low(bytes));
+    }
+
+    /**
+     * Lookup {@link ASNEntry} for an IPv4 address
+     *
+     * @param ipv4 Raw address bits
+     * @return {@link ASNEntry} instance, or {@code null} if not found
+     */
+    public ASNEntry lookupAsn(int ipv4) {
+        return asnCache != null ? asnCache.get(ipv4) : findAsn(ipv4);
+    }
+
+    private ASNEntry findAsn(int ipv4) {
+        return asnEntry(asnIPv4 != null ? asnIPv4.find(ipv4) : asnIndex.find(ipv4, ipv4));
+    }
+
+    /**
+     * Lookup {@link ASNEntry} for an IPv6 address
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return {@link ASNEntry} instance, or {@code null} if not found
+     */
+    public ASNEntry lookupAsn(long high, long low) {
+        return asnCache != null ? asnCache.get(high, low) : findAsn(high, low);
+    }
+
+    private ASNEntry findAsn(long high, long low) {
+        return asnEntry(asnIndex.find(high, low, high, low));
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if an IP address belongs to a Public Cloud Provider ASN
+     *
+     * @param ip IPv4 or IPv6 address text
+     */
+    public boolean isCloud(String ip) {
+        long ipv4 = IPParser.parseIPv4(ip);
+        if (ipv4 >= 0) {
+            return isCloud((int) ipv4);
+        }
+        long[] ipv6 = IPV6_SCRATCH.get();
+        return IPParser.parseIPv6(ip, ipv6) && isCloud(ipv6[0], ipv6[1]);
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if an IP address belongs to a Public Cloud Provider ASN
+     *
+     * @param address {@link InetAddress} instance
+     */
+    public boolean isCloud(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return isCloud(ipv4(bytes));
+        }
+        return isCloud(high(bytes), low(bytes));
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if an IPv4 address belongs to a Public Cloud Provider ASN
+     *
+     * @param ipv4 Raw address bits
+     */
+    public boolean isCloud(int ipv4) {
+        return cloudIPv4.contains(ipv4);
+    }
+
+    /**
+     * Returns {@link Boolean#TRUE} if an IPv6 address belongs to a Public Cloud Provider ASN
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     */
+    public boolean isCloud(long high, long low) {
+        return isCloudAsn(asnIndex.asn(high, low, high, low));
+    }
+
+    /**
+     * City result cache, or {@code null} if caching is disabled
+     */
+    public LookupCache<CityEntry> cityCache() {
+        return cityCache;
+    }
+
+    /**
+     * ASN result cache, or {@code null} if caching is disabled
+     */
+    public LookupCache<ASNEntry> asnCache() {
+        return asnCache;
+    }
+
+    private boolean isCloudAsn(long asn) {
+        return asn > 0 && Arrays.binarySearch(cloudAsn, asn) >= 0;
+    }
+
+    private ASNEntry asnEntry(int row) {
+        if (row < 0) {
+            return null;
+        }
+        ASNEntry entry = asnEntries[row];
+        if (entry == null) {
+            entry = asnTable.entry(row);
+            asnEntries[row] = entry;
+        }
+        return entry;
+    }
+
+    private static ASNTable readAsnTable(Path path) throws IOException {
+        ASNTable.Builder builder = ASNTable.builder();
+        try (CSVReader csvReader = new CSVReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            String[] line;
+            while ((line = csvReader.readNext()) != null) {
+                builder.add(line[0], line[1], Long.parseLong(line[2]), null, line[3]);
+            }
+        } catch (CsvValidationException e) {
+            throw new IOException("Invalid ASN file: " + path, e);
+        }
+        return builder.build();
+    }
+
+    private static long[] readCloudAsn(Path path) throws IOException {
+        try (Reader reader = new BufferedReader(Files.newBufferedReader(path, StandardCharsets.UTF_8))) {
+            JsonArray asnArray = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("asn");
+            long[] asn = new long[asnArray.size()];
+            for (int i = 0; i < asn.length; i++) {
+                asn[i] = asnArray.get(i).getAsLong();
+            }
+            Arrays.sort(asn);
+            return asn;
+        }
+    }
+
+    private static int ipv4(byte[] bytes) {
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static long high(byte[] bytes) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long low(byte[] bytes) {
+        long value = 0;
+        for (int i = 8; i < 16; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
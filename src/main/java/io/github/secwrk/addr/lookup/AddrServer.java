@@ -0,0 +1,276 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.lookup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.secwrk.addr.asn.ASNEntry;
+import io.github.secwrk.addr.city.CityEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link AddrServer} serves {@link AddrDatabase} lookups over HTTP, so Addr can run as a sidecar.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>GET /lookup?ip=1.1.1.1 - City, ASN and Cloud result of an IP address</li>
+ *     <li>GET /city?ip=1.1.1.1 - City result of an IP address</li>
+ *     <li>GET /asn?ip=1.1.1.1 - ASN result of an IP address</li>
+ *     <li>GET /cloud?ip=1.1.1.1 - Cloud result of an IP address</li>
+ *     <li>GET /stats - Hit, miss and eviction counters of City and ASN result caches, if enabled</li>
+ *     <li>POST /batch - One IP address per line in request body. Response is streamed back
+ *     as one lookup result Json per line, in request order.</li>
+ * </ul>
+ * Every request runs on a virtual thread when the runtime supports them, or on a pooled thread otherwise.
+ */
+public final class AddrServer {
+
+    private static final Gson GSON = new Gson();
+
+    private final AddrDatabase database;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    private AddrServer(AddrDatabase database, InetSocketAddress address) throws IOException {
+        this.database = database;
+        this.executor = newExecutor();
+        this.httpServer = HttpServer.create(address, 1024);
+        this.httpServer.setExecutor(executor);
+
+        httpServer.createContext("/lookup", exchange -> handleSingle(exchange, this::lookup));
+        httpServer.createContext("/city", exchange -> handleSingle(exchange, ip -> city(database.lookupCity(ip))));
+        httpServer.createContext("/asn", exchange -> handleSingle(exchange, ip -> asn(database.lookupAsn(ip))));
+        httpServer.createContext("/cloud", exchange -> handleSingle(exchange, ip -> {
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.addProperty("ip", ip);
+            jsonObject.addProperty("cloud", database.isCloud(ip));
+            return jsonObject;
+        }));
+        httpServer.createContext("/stats", this::handleStats);
+        httpServer.createContext("/batch", this::handleBatch);
+    }
+
+    /**
+     * Start a new {@link AddrServer}
+     *
+     * @param database {@link AddrDatabase} to serve
+     * @param address  Address to listen on
+     * @return Started {@link AddrServer} instance
+     */
+    public static AddrServer start(AddrDatabase database, InetSocketAddress address) throws IOException {
+        AddrServer server = new AddrServer(database, address);
+        server.httpServer.start();
+        return server;
+    }
+
+    /**
+     * Address this server is listening on
+     */
+    public InetSocketAddress address() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * Stop this server, waiting up to {@code delaySeconds} for running exchanges to finish
+     */
+    public void stop(int delaySeconds) {
+        httpServer.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Usage: AddrServer [port] [data directory] [binary_search|direct] [cache capacity]
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Path directory = Path.of(args.length > 1 ? args[1] : "generated");
+        AddrDatabase.Engine engine = args.length > 2
+                ? AddrDatabase.Engine.valueOf(args[2].toUpperCase(Locale.ROOT))
+                : AddrDatabase.Engine.BINARY_SEARCH;
+        int cacheCapacity = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        AddrServer server = start(AddrDatabase.load(directory, engine, cacheCapacity), new InetSocketAddress("127.0.0.1", port));
+        System.out.println("Listening on " + server.address());
+    }
+
+    private void handleSingle(HttpExchange exchange, LookupHandler handler) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String ip = queryParameter(exchange.getRequestURI().getRawQuery(), "ip");
+            if (ip == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            JsonObject result = handler.lookup(ip);
+            if (result == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] body = GSON.toJson(result).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            JsonObject jsonObject = new JsonObject();
+            jsonObject.add("city", stats(database.cityCache()));
+            jsonObject.add("asn", stats(database.asnCache()));
+
+            byte[] body = GSON.toJson(jsonObject).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            // Length 0 selects chunked encoding, so results are streamed while the request is still read
+            exchange.sendResponseHeaders(200, 0);
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 65_536)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String ip = line.trim();
+                    if (ip.isEmpty()) {
+                        continue;
+                    }
+                    GSON.toJson(lookup(ip), writer);
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private JsonObject lookup(String ip) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("ip", ip);
+        jsonObject.add("city", city(database.lookupCity(ip)));
+        jsonObject.add("asn", asn(database.lookupAsn(ip)));
+        jsonObject.addProperty("cloud", database.isCloud(ip));
+        return jsonObject;
+    }
+
+    private static JsonObject city(CityEntry cityEntry) {
+        if (cityEntry == null) {
+            return null;
+        }
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("ipStart", cityEntry.ipStart());
+        jsonObject.addProperty("ipEnd", cityEntry.ipEnd());
+        jsonObject.addProperty("continentCode", cityEntry.continentCode());
+        jsonObject.addProperty("countryCode", cityEntry.countryCode());
+        jsonObject.addProperty("continentName", cityEntry.continentName());
+        jsonObject.addProperty("countryName", cityEntry.countryName());
+        jsonObject.addProperty("stateProvince", cityEntry.stateProvince());
+        jsonObject.addProperty("city", cityEntry.city());
+        jsonObject.addProperty("latitude", cityEntry.latitude());
+        jsonObject.addProperty("longitude", cityEntry.longitude());
+        return jsonObject;
+    }
+
+    private static JsonObject asn(ASNEntry asnEntry) {
+        if (asnEntry == null) {
+            return null;
+        }
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("ipRangeStart", asnEntry.ipRangeStart());
+        jsonObject.addProperty("ipRangeEnd", asnEntry.ipRangeEnd());
+        jsonObject.addProperty("asn", asnEntry.asn());
+        jsonObject.addProperty("aso", asnEntry.aso());
+        return jsonObject;
+    }
+
+    private static JsonObject stats(LookupCache<?> cache) {
+        if (cache == null) {
+            return null;
+        }
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("capacity", cache.capacity());
+        jsonObject.addProperty("hits", cache.hits());
+        jsonObject.addProperty("misses", cache.misses());
+        jsonObject.addProperty("evictions", cache.evictions());
+        return jsonObject;
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index > 0 && parameter.substring(0, index).equals(name)) {
+                return URLDecoder.decode(parameter.substring(index + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            // Virtual threads are available from Java 21, this project still targets Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+        }
+    }
+
+    @FunctionalInterface
+    private interface LookupHandler {
+        JsonObject lookup(String ip);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.lookup;
+
+import java.util.Arrays;
+
+/**
+ * {@link IPv4DirectTable} maps IPv4 addresses to range ids with a DIR-24-8 style table,
+ * so a lookup takes at most two memory reads regardless of number of ranges.
+ * <p>
+ * The first level has one entry per /24 block (16M entries, 64 MB). An entry either holds
+ * the id of the range covering the whole block, or points to a second level block of
+ * 256 entries, one per address, for blocks which are split between ranges. Memory is
+ * traded for latency: every split block costs 1 KB, {@link #memoryBytes()} reports the total.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class IPv4DirectTable {
+
+    private static final int BLOCKS = 1 << 24;
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * Second level blocks which fit in one array
+     */
+    private static final int MAX_SPLIT_BLOCKS = (1 << 23) - 1;
+
+    /**
+     * Range id + 1, 0 if no range, or -(second level block + 1)
+     */
+    private final int[] level24;
+    private final int[] level8;
+
+    private IPv4DirectTable(int[] level24, int[] level8) {
+        this.level24 = level24;
+        this.level8 = level8;
+    }
+
+    /**
+     * Create a new {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Find id of range containing an IPv4 address
+     *
+     * @param ipv4 Raw address bits
+     * @return Range id, or -1 if not found
+     */
+    public int find(int ipv4) {
+        int entry = level24[ipv4 >>> 8];
+        if (entry < 0) {
+            entry = level8[(~entry << 8) | (ipv4 & 0xFF)];
+        }
+        return entry - 1;
+    }
+
+    /**
+     * Number of second level blocks
+     */
+    public int splitBlocks() {
+        return level8.length / BLOCK_SIZE;
+    }
+
+    /**
+     * Heap size of both levels in bytes
+     */
+    public long memoryBytes() {
+        return (long) level24.length * Integer.BYTES + (long) level8.length * Integer.BYTES;
+    }
+
+    /**
+     * Builder for {@link IPv4DirectTable}. Ranges can be added in any order, they are
+     * expected to be non-overlapping, an address covered twice resolves to the range added last.
+     */
+    public static final class Builder {
+
+        private final int[] level24 = new int[BLOCKS];
+        private int[] level8 = new int[64 * BLOCK_SIZE];
+        private int blocks;
+
+        private Builder() {
+            // Use IPv4DirectTable#builder()
+        }
+
+        /**
+         * Add an IPv4 range
+         *
+         * @param start Start of range as raw address bits
+         * @param end   End of range as raw address bits, inclusive
+         * @param id    Range id, 0 or greater
+         * @return this {@link Builder}
+         */
+        public Builder add(int start, int end, int id) {
+            if (id < 0 || id == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid range id: " + id);
+            }
+            if (Integer.compareUnsigned(start, end) > 0) {
+                throw new IllegalArgumentException("Invalid IP Address Range: start is after end");
+            }
+
+            int value = id + 1;
+            int firstBlock = start >>> 8;
+            int lastBlock = end >>> 8;
+            if (firstBlock == lastBlock) {
+                fill(firstBlock, start & 0xFF, end & 0xFF, value);
+                return this;
+            }
+
+            int firstFull = firstBlock;
+            if ((start & 0xFF) != 0) {
+                fill(firstBlock, start & 0xFF, 0xFF, value);
+                firstFull++;
+            }
+            int lastFull = lastBlock;
+            if ((end & 0xFF) != 0xFF) {
+                fill(lastBlock, 0, end & 0xFF, value);
+                lastFull--;
+            }
+            if (firstFull <= lastFull) {
+                Arrays.fill(level24, firstFull, lastFull + 1, value);
+            }
+            return this;
+        }
+
+        /**
+         * Build {@link IPv4DirectTable}
+         */
+        public IPv4DirectTable build() {
+            return new IPv4DirectTable(level24.clone(), Arrays.copyOf(level8, blocks * BLOCK_SIZE));
+        }
+
+        /**
+         * Set entries of addresses {@code from} to {@code to} of a /24 block, splitting it if needed
+         */
+        private void fill(int block, int from, int to, int value) {
+            int entry = level24[block];
+            if (from == 0 && to == 0xFF) {
+                level24[block] = value;
+                return;
+            }
+
+            if (entry >= 0) {
+                if (entry == value) {
+                    return;
+                }
+                if (blocks == MAX_SPLIT_BLOCKS) {
+                    throw new IllegalStateException("Too many split /24 blocks");
+                }
+                if ((blocks + 1) * BLOCK_SIZE > level8.length) {
+                    level8 = Arrays.copyOf(level8, (int) Math.min(level8.length * 2L, (long) MAX_SPLIT_BLOCKS * BLOCK_SIZE));
+                }
+                // Addresses outside of new range keep previous value of block
+                Arrays.fill(level8, blocks * BLOCK_SIZE, (blocks + 1) * BLOCK_SIZE, entry);
+                entry = ~blocks++;
+                level24[block] = entry;
+            }
+            int offset = ~entry * BLOCK_SIZE;
+            Arrays.fill(level8, offset + from, offset + to + 1, value);
+        }
+    }
+}
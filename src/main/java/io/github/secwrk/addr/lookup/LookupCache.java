@@ -0,0 +1,244 @@
+/*
+ * Copyright 2022, SecWrk
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.secwrk.addr.lookup;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * {@link LookupCache} is a bounded cache of lookup results, keyed by raw IPv4 or IPv6 address bits.
+ * <p>
+ * Entries are kept in 8-way sets. An address hashes to one set, and when the set is full the
+ * CLOCK algorithm picks the entry to evict: every hit marks an entry as referenced, and the
+ * clock hand of the set skips (and clears) referenced entries until it finds one which was
+ * not used since the hand last passed it. Sets are guarded by {@value #STRIPES} striped locks,
+ * which are only held while comparing keys, so concurrent lookups rarely wait on each other.
+ * <p>
+ * A lookup which hits does not allocate. On a miss the result is loaded outside of the lock,
+ * so two threads missing the same address may both load it. {@code null} results are cached too.
+ * Hit, miss and eviction counters can be used to size the cache against the cost of an uncached lookup.
+ *
+ * @param <V> Type of lookup result
+ */
+public final class LookupCache<V> {
+
+    private static final int WAYS = 8;
+    private static final int STRIPES = 64;
+
+    private static final byte EMPTY = 0;
+    private static final byte IPV4 = 1;
+    private static final byte IPV6 = 2;
+
+    /**
+     * Cached value of a {@code null} result
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * Returned by {@link #find(int, byte, long, long)} if an address is not cached
+     */
+    private static final Object ABSENT = new Object();
+
+    private final IntFunction<V> ipv4Loader;
+    private final IPv6Loader<V> ipv6Loader;
+
+    private final int setMask;
+    private final byte[] kinds;
+    private final long[] keyHigh;
+    private final long[] keyLow;
+    private final Object[] values;
+    private final boolean[] referenced;
+    private final byte[] hands;
+    private final Object[] locks;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private LookupCache(int sets, IntFunction<V> ipv4Loader, IPv6Loader<V> ipv6Loader) {
+        this.ipv4Loader = ipv4Loader;
+        this.ipv6Loader = ipv6Loader;
+        this.setMask = sets - 1;
+        this.kinds = new byte[sets * WAYS];
+        this.keyHigh = new long[sets * WAYS];
+        this.keyLow = new long[sets * WAYS];
+        this.values = new Object[sets * WAYS];
+        this.referenced = new boolean[sets * WAYS];
+        this.hands = new byte[sets];
+        this.locks = new Object[Math.min(STRIPES, sets)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Create a new {@link LookupCache}
+     *
+     * @param capacity   Maximum number of cached results, rounded up to a power of two (minimum 8)
+     * @param ipv4Loader Loads result of an IPv4 address on a miss
+     * @param ipv6Loader Loads result of an IPv6 address on a miss
+     * @param <V>        Type of lookup result
+     * @return {@link LookupCache} instance
+     * @throws IllegalArgumentException If capacity is not positive or too large
+     */
+    public static <V> LookupCache<V> create(int capacity, IntFunction<V> ipv4Loader, IPv6Loader<V> ipv6Loader) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid cache capacity: " + capacity);
+        }
+        int sets = Math.max(1, Integer.highestOneBit((capacity + WAYS - 1) / WAYS));
+        if (sets * WAYS < capacity) {
+            sets <<= 1;
+        }
+        return new LookupCache<>(sets, ipv4Loader, ipv6Loader);
+    }
+
+    /**
+     * Get result of an IPv4 address, loading it on a miss
+     *
+     * @param ipv4 Raw address bits
+     * @return Cached or loaded result
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int ipv4) {
+        long low = ipv4 & 0xFFFFFFFFL;
+        int set = (int) mix(low) & setMask;
+        Object value = find(set, IPV4, 0, low);
+        if (value == ABSENT) {
+            misses.increment();
+            V loaded = ipv4Loader.apply(ipv4);
+            store(set, IPV4, 0, low, loaded);
+            return loaded;
+        }
+        hits.increment();
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    /**
+     * Get result of an IPv6 address, loading it on a miss
+     *
+     * @param high High 64 bits of address
+     * @param low  Low 64 bits of address
+     * @return Cached or loaded result
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long high, long low) {
+        int set = (int) mix(high * 0x9E3779B97F4A7C15L ^ low) & setMask;
+        Object value = find(set, IPV6, high, low);
+        if (value == ABSENT) {
+            misses.increment();
+            V loaded = ipv6Loader.load(high, low);
+            store(set, IPV6, high, low, loaded);
+            return loaded;
+        }
+        hits.increment();
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    /**
+     * Maximum number of cached results
+     */
+    public int capacity() {
+        return kinds.length;
+    }
+
+    /**
+     * Number of lookups answered from cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups which had to be loaded
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of results evicted to make room for a new one
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private Object find(int set, byte kind, long high, long low) {
+        int base = set * WAYS;
+        synchronized (locks[set & (locks.length - 1)]) {
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (keyLow[slot] == low && keyHigh[slot] == high && kinds[slot] == kind) {
+                    referenced[slot] = true;
+                    return values[slot];
+                }
+            }
+        }
+        return ABSENT;
+    }
+
+    private void store(int set, byte kind, long high, long low, Object value) {
+        int base = set * WAYS;
+        synchronized (locks[set & (locks.length - 1)]) {
+            int target = -1;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (keyLow[slot] == low && keyHigh[slot] == high && kinds[slot] == kind) {
+                    // Loaded by another thread in the meantime
+                    return;
+                }
+                if (target < 0 && kinds[slot] == EMPTY) {
+                    target = slot;
+                }
+            }
+
+            if (target < 0) {
+                int hand = hands[set];
+                while (referenced[base + hand]) {
+                    referenced[base + hand] = false;
+                    hand = (hand + 1) & (WAYS - 1);
+                }
+                target = base + hand;
+                hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+                evictions.increment();
+            }
+
+            kinds[target] = kind;
+            keyHigh[target] = high;
+            keyLow[target] = low;
+            values[target] = value == null ? NOT_FOUND : value;
+            referenced[target] = false;
+        }
+    }
+
+    /**
+     * Murmur3 finalizer, spreads address bits over the set index
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value ^ value >>> 33;
+    }
+
+    /**
+     * Loads result of an IPv6 address
+     *
+     * @param <V> Type of lookup result
+     */
+    @FunctionalInterface
+    public interface IPv6Loader<V> {
+        V load(long high, long low);
+    }
+}